@@ -0,0 +1,52 @@
+package com.xiaozhang.bench;
+
+import com.xiaozhang.Grammar;
+import com.xiaozhang.LR1Parser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// 共享一份分析表并行编译一批源程序，观察吞吐量随线程数的变化
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchCompileBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    @Param({"2000"})
+    int units;
+
+    @Param({"50"})
+    int statements;
+
+    LR1Parser parser;
+    List<String> sources;
+    ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        parser = new LR1Parser(new Grammar());
+        parser.tables();
+        sources = new ArrayList<>();
+        for (int i = 0; i < units; i++) sources.add(Programs.generate(statements, 3, i));
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List<LR1Parser.ParseResult> compileAll() {
+        return parser.compileAll(sources, pool);
+    }
+}
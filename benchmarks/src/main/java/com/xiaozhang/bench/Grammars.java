@@ -0,0 +1,91 @@
+package com.xiaozhang.bench;
+
+import com.xiaozhang.Grammar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+// 基准测试用的文法
+public class Grammars {
+
+    // 由 "A -> x y | z" 形式的文本构造文法，第一行的左部作为开始符号
+    // 候选式之间用 " | " 分隔，所以按位或运算符写作 bitor
+    public static Grammar of(String... rules) {
+        List<Grammar.Prod> prods = new ArrayList<>();
+        String first = rules[0].split("->")[0].trim();
+        prods.add(new Grammar.Prod(0, first + "'", List.of(first)));
+        for (String r : rules) {
+            String[] lr = r.split("->");
+            String left = lr[0].trim();
+            for (String alt : lr[1].split(" \\| ")) {
+                List<String> right = Arrays.asList(alt.trim().split("\\s+"));
+                prods.add(new Grammar.Prod(prods.size(), left, right));
+            }
+        }
+        return new Grammar(first + "'", prods);
+    }
+
+    // 把 C 子集文法复制 k 份(非终结符加后缀区分)，用不同的引导符号连起来，用于观察规模增长时的构造时间
+    public static Grammar replicatedC(int k) {
+        Grammar c = cSubset();
+        List<Grammar.Prod> prods = new ArrayList<>();
+        prods.add(new Grammar.Prod(0, "top'", List.of("top")));
+        for (int i = 1; i <= k; i++) {
+            prods.add(new Grammar.Prod(prods.size(), "top", List.of("unit" + i, "program_" + i)));
+        }
+        Set<String> nts = c.nonterminals();
+        for (int i = 1; i <= k; i++) {
+            for (Grammar.Prod p : c.prods.subList(1, c.prods.size())) {
+                List<String> right = new ArrayList<>();
+                for (String r : p.getRight()) right.add(nts.contains(r) ? r + "_" + i : r);
+                prods.add(new Grammar.Prod(prods.size(), p.getLeft() + "_" + i, right));
+            }
+        }
+        return new Grammar("top'", prods);
+    }
+
+    // C 语言子集：函数、声明、if/while/for/do、完整的表达式优先级层次
+    public static Grammar cSubset() {
+        return of(
+                "program -> ext_list",
+                "ext_list -> ext_list ext | ext",
+                "ext -> func_def | decl",
+                "func_def -> type id ( params ) compound | type id ( ) compound",
+                "params -> params , param | param",
+                "param -> type id | type id [ ]",
+                "type -> int | float | char | void | double",
+                "decl -> type init_list ;",
+                "init_list -> init_list , init | init",
+                "init -> id | id = assign | id [ num ] | id [ num ] = { args }",
+                "compound -> { stmt_list } | { }",
+                "stmt_list -> stmt_list stmt | stmt",
+                "stmt -> expr ; | decl | compound | if_stmt"
+                        + " | while ( expr ) stmt | for ( expr ; expr ; expr ) stmt"
+                        + " | do stmt while ( expr ) ; | return expr ; | return ;"
+                        + " | break ; | continue ; | ;",
+                "if_stmt -> if ( expr ) compound | if ( expr ) compound else compound"
+                        + " | if ( expr ) compound else if_stmt",
+                "expr -> expr , assign | assign",
+                "assign -> unary assign_op assign | cond",
+                "assign_op -> = | += | -= | *= | /= | %= | &= | |= | ^= | <<= | >>=",
+                "cond -> lor ? expr : cond | lor",
+                "lor -> lor || land | land",
+                "land -> land && bor | bor",
+                "bor -> bor bitor bxor | bxor",
+                "bxor -> bxor ^ band | band",
+                "band -> band & eq | eq",
+                "eq -> eq == rel | eq != rel | rel",
+                "rel -> rel < shift | rel > shift | rel <= shift | rel >= shift | shift",
+                "shift -> shift << add | shift >> add | add",
+                "add -> add + mul | add - mul | mul",
+                "mul -> mul * unary | mul / unary | mul % unary | unary",
+                "unary -> - unary | ! unary | ~ unary | ++ unary | -- unary | & unary | * unary | postfix",
+                "postfix -> postfix [ expr ] | postfix ( args ) | postfix ( )"
+                        + " | postfix ++ | postfix -- | primary",
+                "args -> args , assign | assign",
+                "primary -> id | num | ( expr )"
+        );
+    }
+}
@@ -0,0 +1,41 @@
+package com.xiaozhang.bench;
+
+import com.xiaozhang.Grammar;
+import com.xiaozhang.IncrementalParser;
+import com.xiaozhang.LR1Parser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// 增量分析: 每次把文件中间一个赋值语句右边的第一个字符改成另一个数字
+// 与 ParseBenchmark.parse 对比，看单次修改的开销
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int statements;
+
+    IncrementalParser ip;
+    int offset;
+    int round;
+
+    @Setup
+    public void setup() {
+        String src = Programs.generate(statements, 4, 42);
+        ip = new IncrementalParser(new LR1Parser(new Grammar()));
+        ip.parse(src);
+        offset = src.indexOf(" = ", src.length() / 2) + 3;
+    }
+
+    @Benchmark
+    public LR1Parser.ParseResult edit() {
+        LR1Parser.ParseResult r = ip.edit(offset, 1, String.valueOf(round++ % 10));
+        if (!r.success) throw new IllegalStateException(r.message);
+        return r;
+    }
+}
@@ -0,0 +1,62 @@
+package com.xiaozhang.bench;
+
+import com.xiaozhang.ControlFlowGraph;
+import com.xiaozhang.Grammar;
+import com.xiaozhang.LR1Parser;
+import com.xiaozhang.TACCompiler;
+import com.xiaozhang.TACGenerator;
+import com.xiaozhang.TACInterpreter;
+import com.xiaozhang.TACOptimizer;
+import com.xiaozhang.TempAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// 解释执行 Main 中的两个嵌套 for 程序，把循环次数放大到百万级
+// nested: 内层循环体共执行约 200 万次；ifNested: 外层循环 100 万次，每次走一遍 if 嵌套
+// optimize=true 时先做跳转优化、局部优化和临时变量分配，看优化对执行时间的影响
+// compiled 执行编译成 JVM 类的同一个程序，与解释执行对比
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    static final String NESTED = "for(i = 1;i <= 2000; i = i + 1){ for(j = 0 ;j < i;j = j + 1){a = j + 1;}}";
+    static final String IF_NESTED = "for(i = 1;i <= 1000000;i = i + 1){ if(a<1){a = 2;if(b > 1){b = 23;} else{b = 30;}} else {a = 0;} }";
+
+    @Param({"nested", "ifNested"})
+    String program;
+
+    @Param({"false", "true"})
+    boolean optimize;
+
+    TACInterpreter interpreter;
+    TACCompiler compiler;
+
+    @Setup
+    public void setup() {
+        LR1Parser.ParseResult r = new LR1Parser(new Grammar()).compile(program.equals("nested") ? NESTED : IF_NESTED);
+        if (!r.success) throw new IllegalStateException(r.message);
+        TACGenerator g = r.tac;
+        if (optimize) {
+            new ControlFlowGraph(g).optimize();
+            new TACOptimizer().optimize(g);
+            new TempAllocator().allocate(g);
+        }
+        interpreter = new TACInterpreter(g);
+        compiler = new TACCompiler(interpreter);
+    }
+
+    @Benchmark
+    public TACInterpreter.Frame run() {
+        return interpreter.run();
+    }
+
+    @Benchmark
+    public TACInterpreter.Frame compiled() {
+        return compiler.run();
+    }
+}
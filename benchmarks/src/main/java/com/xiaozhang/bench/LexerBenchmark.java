@@ -0,0 +1,46 @@
+package com.xiaozhang.bench;
+
+import com.xiaozhang.Grammar;
+import com.xiaozhang.LR1Parser;
+import com.xiaozhang.Lexer;
+import com.xiaozhang.TokenBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 词法分析吞吐量: 生成 Token 对象列表 / 按字段存放的单词缓冲区
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    @Param({"1000", "10000"})
+    int statements;
+
+    @Param({"4"})
+    int depth;
+
+    String src;
+    Map<String, Integer> ids;
+
+    @Setup
+    public void setup() {
+        src = Programs.generate(statements, depth, 42);
+        ids = new LR1Parser(new Grammar()).terminalIds();
+    }
+
+    @Benchmark
+    public List<Lexer.Token> tokenize() {
+        return new Lexer(src, ids).tokenize();
+    }
+
+    @Benchmark
+    public TokenBuffer tokenizeAll() {
+        return new Lexer(src, ids).tokenizeAll();
+    }
+}
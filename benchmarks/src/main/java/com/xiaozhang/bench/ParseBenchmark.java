@@ -0,0 +1,65 @@
+package com.xiaozhang.bench;
+
+import com.xiaozhang.GeneratedParser;
+import com.xiaozhang.Grammar;
+import com.xiaozhang.LR1Parser;
+import com.xiaozhang.Lexer;
+import com.xiaozhang.ParseTables;
+import com.xiaozhang.TokenBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 语法分析 + 三地址码生成，分析表只构造一次
+// parse 包含词法分析，parseTokens 从事先得到的单词缓冲区读取，generated 用 ParserGenerator 生成的分析器
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int statements;
+
+    @Param({"2", "8"})
+    int depth;
+
+    Grammar g;
+    ParseTables tables;
+    Map<String, Integer> ids;
+    String src;
+    TokenBuffer tokens;
+
+    @Setup
+    public void setup() {
+        g = new Grammar();
+        LR1Parser p = new LR1Parser(g);
+        tables = p.tables();
+        ids = p.terminalIds();
+        src = Programs.generate(statements, depth, 42);
+        tokens = new Lexer(src, ids).tokenizeAll();
+    }
+
+    @Benchmark
+    public LR1Parser.ParseResult parse() {
+        return check(new LR1Parser(g, tables).parseAndGenerate(new Lexer(src, ids), false));
+    }
+
+    @Benchmark
+    public LR1Parser.ParseResult parseTokens() {
+        return check(new LR1Parser(g, tables).parseAndGenerate(tokens.stream(), false));
+    }
+
+    @Benchmark
+    public LR1Parser.ParseResult generated() {
+        return check(GeneratedParser.compile(src));
+    }
+
+    private static LR1Parser.ParseResult check(LR1Parser.ParseResult r) {
+        if (!r.success) throw new IllegalStateException(r.message);
+        return r;
+    }
+}
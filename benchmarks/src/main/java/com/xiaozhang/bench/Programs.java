@@ -0,0 +1,63 @@
+package com.xiaozhang.bench;
+
+import java.util.Random;
+
+// 生成可以被默认文法接受的测试程序
+public class Programs {
+
+    private static final String[] VARS = {"a", "b", "c", "i", "j", "sum", "x1", "y2"};
+
+    // 生成约 statements 条赋值语句，混有 if/else 和嵌套 for，嵌套深度不超过 maxDepth
+    public static String generate(int statements, int maxDepth, long seed) {
+        Random r = new Random(seed);
+        StringBuilder sb = new StringBuilder(statements * 24);
+        int[] left = {statements};
+        while (left[0] > 0) block(sb, r, left, maxDepth);
+        return sb.toString();
+    }
+
+    private static void block(StringBuilder sb, Random r, int[] left, int depth) {
+        int k = r.nextInt(10);
+        if (depth == 0 || k < 6 || left[0] < 4) {
+            assign(sb, r);
+            sb.append(";\n");
+            left[0]--;
+        } else if (k < 8) {
+            sb.append("if(").append(cond(r)).append("){");
+            body(sb, r, left, depth - 1);
+            sb.append("} else {");
+            body(sb, r, left, depth - 1);
+            sb.append("}\n");
+        } else {
+            String v = VARS[r.nextInt(VARS.length)];
+            sb.append("for(").append(v).append(" = 0;").append(v).append(" < ").append(1 + r.nextInt(100))
+                    .append(";").append(v).append(" = ").append(v).append(" + 1){");
+            body(sb, r, left, depth - 1);
+            sb.append("}\n");
+            left[0] -= 2;
+        }
+    }
+
+    private static void body(StringBuilder sb, Random r, int[] left, int depth) {
+        int n = 1 + r.nextInt(4);
+        // 语句块至少要有一条语句
+        for (int i = 0; i < n && (i == 0 || left[0] > 0); i++) block(sb, r, left, depth);
+    }
+
+    private static void assign(StringBuilder sb, Random r) {
+        sb.append(VARS[r.nextInt(VARS.length)]).append(" = ").append(expr(r, 2));
+    }
+
+    private static String cond(Random r) {
+        String[] ops = {"<", ">", "<=", ">=", "!=", "=="};
+        return expr(r, 1) + " " + ops[r.nextInt(ops.length)] + " " + expr(r, 1);
+    }
+
+    private static String expr(Random r, int depth) {
+        String f = r.nextBoolean() ? VARS[r.nextInt(VARS.length)] : Integer.toString(r.nextInt(1000));
+        if (depth == 0 || r.nextInt(3) == 0) return f;
+        String[] ops = {"+", "*", "/"};    // 词法分析器把 - 当作数字的开头，不生成减法
+        String e = f + " " + ops[r.nextInt(ops.length)] + " " + expr(r, depth - 1);
+        return r.nextInt(4) == 0 ? "(" + e + ")" : e;
+    }
+}
@@ -0,0 +1,53 @@
+package com.xiaozhang.bench;
+
+import com.xiaozhang.Grammar;
+import com.xiaozhang.LR1Builder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// 分析表构造时间随文法规模、构造方式和线程数的变化
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableBuildBenchmark {
+
+    @Param({"toy", "c-subset", "c-subset-x4"})
+    String grammar;
+
+    @Param({"LR1", "LALR1", "IELR"})
+    LR1Builder.Mode mode;
+
+    @Param({"1", "4"})
+    int threads;
+
+    Grammar g;
+    ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        switch (grammar) {
+            case "toy": g = new Grammar(); break;
+            case "c-subset": g = Grammars.cSubset(); break;
+            case "c-subset-x4": g = Grammars.replicatedC(4); break;
+            default: throw new IllegalArgumentException("Unknown grammar " + grammar);
+        }
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int buildStatesAndTables() {
+        LR1Builder b = new LR1Builder(g);
+        b.build(mode, pool);
+        return b.tables().stateCount();
+    }
+}
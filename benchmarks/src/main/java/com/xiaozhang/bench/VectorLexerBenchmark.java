@@ -0,0 +1,57 @@
+package com.xiaozhang.bench;
+
+import com.xiaozhang.Grammar;
+import com.xiaozhang.LR1Parser;
+import com.xiaozhang.Lexer;
+import com.xiaozhang.TokenBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 几 MB 的输入上比较逐个字符的 DFA 和向量化快速路径(Lexer.useVectorScan)
+// compact 是 Programs 生成的程序(单字母变量、单个空格)；padded 把变量换成长标识符、每行缩进，像机器生成的代码
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorLexerBenchmark {
+
+    @Param({"200000"})
+    int statements;
+
+    @Param({"compact", "padded"})
+    String shape;
+
+    @Param({"false", "true"})
+    boolean vector;
+
+    String src;
+    Map<String, Integer> ids;
+
+    @Setup
+    public void setup() {
+        String s = Programs.generate(statements, 4, 42);
+        if (shape.equals("padded")) {
+            s = s.replaceAll("\\b(a|b|c|i|j|sum|x1|y2)\\b", "generated_$1_accumulator_value")
+                    .replace("\n", "\n                        ");
+        }
+        src = s;
+        ids = new LR1Parser(new Grammar()).terminalIds();
+        if (Lexer.useVectorScan(vector) != vector) {
+            throw new IllegalStateException("jdk.incubator.vector is not available, run with --add-modules jdk.incubator.vector");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Lexer.useVectorScan(false);
+    }
+
+    @Benchmark
+    public TokenBuffer tokenizeAll() {
+        return new Lexer(src, ids).tokenizeAll();
+    }
+}
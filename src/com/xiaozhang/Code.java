@@ -0,0 +1,54 @@
+package com.xiaozhang;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.IntConsumer;
+
+// 三地址码片段
+// 用不可变的二叉拼接树(rope)表示: 叶子是一条指令(TACGenerator 中的四元式编号)，内部结点是左右两段的拼接
+// 归约时拼接只新建一个结点，O(1)；整段代码只在接受时展开一次
+final class Code {
+
+    static final Code EMPTY = new Code(-1, null, null, 0);
+
+    private final int quad;         // 叶子: 四元式编号
+    private final Code left, right; // 内部结点: 先 left 后 right
+    final int size;                 // 指令条数
+
+    private Code(int quad, Code left, Code right, int size) {
+        this.quad = quad;
+        this.left = left;
+        this.right = right;
+        this.size = size;
+    }
+
+    static Code of(int quad) {
+        return new Code(quad, null, null, 1);
+    }
+
+    // 拼接，空片段直接跳过
+    Code then(Code next) {
+        if (next == null || next.size == 0) return this;
+        if (size == 0) return next;
+        return new Code(-1, this, next, size + next.size);
+    }
+
+    Code then(int quad) {
+        return then(of(quad));
+    }
+
+    // 按顺序逐条展开，用显式栈避免 B → B S 这样的长链导致递归过深
+    void forEach(IntConsumer out) {
+        Deque<Code> stack = new ArrayDeque<>();
+        if (size > 0) stack.push(this);
+        while (!stack.isEmpty()) {
+            Code c = stack.pop();
+            if (c.left == null) {
+                out.accept(c.quad);
+            } else {
+                stack.push(c.right);
+                stack.push(c.left);
+            }
+        }
+    }
+}
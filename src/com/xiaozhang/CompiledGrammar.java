@@ -0,0 +1,158 @@
+package com.xiaozhang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 文法的只读编译形式，构造分析表只用它
+// 符号编号: 终结符 [0,nT)，按在产生式右部第一次出现的顺序，最后一个是 "$"；非终结符 [nT,nT+nN)，按第一次作为左部出现的顺序
+// 产生式的左部、右部和每个非终结符的产生式都是数组；可空、FIRST、FOLLOW 用 BitSet 保存(FIRST/FOLLOW 按终结符编号)
+public final class CompiledGrammar {
+
+    final String[] terminals;       // 终结符，最后一个是 "$"
+    final String[] nonterminals;
+    final int nT, nN;
+    final int eof;                  // "$" 的编号
+    final int[] lhs;                // 产生式左部(非终结符序号)
+    final int[][] rhs;              // 产生式右部(符号编号)
+    final int[][] prodsOf;          // 每个非终结符的产生式
+    final BitSet nullable;          // 可以推出空串的非终结符
+    final BitSet[] first;           // 非终结符的 FIRST 集
+    final BitSet[] follow;          // 非终结符的 FOLLOW 集
+
+    private final Map<String, Integer> ids = new HashMap<>();     // 符号名 -> 符号编号
+
+    public CompiledGrammar(Grammar g) {
+        List<String> ntList = new ArrayList<>();
+        Map<String, Integer> ntIds = new HashMap<>();
+        for (Grammar.Prod p : g.prods) {
+            if (!ntIds.containsKey(p.left)) {
+                ntIds.put(p.left, ntList.size());
+                ntList.add(p.left);
+            }
+        }
+        List<String> termList = new ArrayList<>();
+        Map<String, Integer> termIds = new HashMap<>();
+        for (Grammar.Prod p : g.prods) {
+            for (String r : p.right) {
+                if (!ntIds.containsKey(r) && !termIds.containsKey(r)) {
+                    termIds.put(r, termList.size());
+                    termList.add(r);
+                }
+            }
+        }
+        termIds.put("$", termList.size());
+        termList.add("$");
+
+        terminals = termList.toArray(new String[0]);
+        nonterminals = ntList.toArray(new String[0]);
+        nT = terminals.length;
+        nN = nonterminals.length;
+        eof = nT - 1;
+        ids.putAll(termIds);
+        for (Map.Entry<String, Integer> e : ntIds.entrySet()) ids.put(e.getKey(), nT + e.getValue());
+
+        int n = g.prods.size();
+        lhs = new int[n];
+        rhs = new int[n][];
+        int[] cnt = new int[nN];
+        for (Grammar.Prod p : g.prods) {
+            lhs[p.id] = ntIds.get(p.left);
+            rhs[p.id] = new int[p.right.size()];
+            for (int k = 0; k < p.right.size(); k++) rhs[p.id][k] = ids.get(p.right.get(k));
+            cnt[lhs[p.id]]++;
+        }
+        prodsOf = new int[nN][];
+        for (int i = 0; i < nN; i++) prodsOf[i] = new int[cnt[i]];
+        Arrays.fill(cnt, 0);
+        for (int p = 0; p < n; p++) prodsOf[lhs[p]][cnt[lhs[p]]++] = p;
+
+        // 可空和 FIRST 一起迭代到不再变化
+        nullable = new BitSet(nN);
+        first = new BitSet[nN];
+        for (int i = 0; i < nN; i++) first[i] = new BitSet(nT);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < n; p++) {
+                BitSet f = first[lhs[p]];
+                int before = f.cardinality();
+                if (firstOfSequence(rhs[p], 0, f) && !nullable.get(lhs[p])) {
+                    nullable.set(lhs[p]);
+                    changed = true;
+                }
+                if (f.cardinality() != before) changed = true;
+            }
+        }
+
+        // FOLLOW: A -> α B β 时 FIRST(β) ⊆ FOLLOW(B)，β 可空时 FOLLOW(A) ⊆ FOLLOW(B)
+        follow = new BitSet[nN];
+        for (int i = 0; i < nN; i++) follow[i] = new BitSet(nT);
+        if (n > 0) follow[lhs[0]].set(eof);
+        changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < n; p++) {
+                for (int k = 0; k < rhs[p].length; k++) {
+                    if (rhs[p][k] < nT) continue;
+                    BitSet f = follow[rhs[p][k] - nT];
+                    int before = f.cardinality();
+                    if (firstOfSequence(rhs[p], k + 1, f)) f.or(follow[lhs[p]]);
+                    if (f.cardinality() != before) changed = true;
+                }
+            }
+        }
+    }
+
+    // 把 FIRST(seq[from..]) 并入 out；整个序列可以推出空串时返回 true(空序列也是)
+    // 可空的符号之后的符号同样要看，直到遇到终结符或不可空的非终结符
+    boolean firstOfSequence(int[] seq, int from, BitSet out) {
+        for (int k = from; k < seq.length; k++) {
+            int s = seq[k];
+            if (s < nT) {
+                out.set(s);
+                return false;
+            }
+            out.or(first[s - nT]);
+            if (!nullable.get(s - nT)) return false;
+        }
+        return true;
+    }
+
+    // FIRST(seq[from..] la)
+    public BitSet firstOfSequence(int[] seq, int from, int la) {
+        BitSet out = new BitSet(nT);
+        if (firstOfSequence(seq, from, out)) out.set(la);
+        return out;
+    }
+
+    public int terminalCount() { return nT; }
+
+    public int nonterminalCount() { return nN; }
+
+    public int productionCount() { return lhs.length; }
+
+    // 符号编号，没有这个符号时返回 -1
+    public int symbolId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String symbolName(int sym) {
+        return sym < nT ? terminals[sym] : nonterminals[sym - nT];
+    }
+
+    public int lhs(int prod) { return nT + lhs[prod]; }
+
+    public int[] rhs(int prod) { return rhs[prod].clone(); }
+
+    // 以下按符号编号查询，sym 须为非终结符
+    public boolean nullable(int sym) { return nullable.get(sym - nT); }
+
+    public BitSet first(int sym) { return (BitSet) first[sym - nT].clone(); }
+
+    public BitSet follow(int sym) { return (BitSet) follow[sym - nT].clone(); }
+}
@@ -0,0 +1,360 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+
+// 三地址码的控制流图和跳转优化
+// 基本块从标号或跳转之后的指令开始，到跳转或下一个标号之前结束；后继是跳转目标和顺序执行的下一块
+// optimize() 依次做:
+// 1. 合并相邻的标号
+// 2. 循环倒置: Lb: 条件; ifFalse 条件 goto Le; 循环体; goto Lb; Le:
+//    改成 Lb: 条件; ifFalse 条件 goto Le; Lbody: 循环体; 条件(副本); if 条件 goto Lbody; Le:
+//    每轮循环只执行一次跳转；副本中的临时变量换成新的，保持临时变量只赋值一次
+//    只倒置比较的两边都是整数的循环(类型见 TACInterpreter.inferTypes): 有 NaN 时 !(a < b) 和 a >= b 不同
+// 3. 跳转穿透: 跳到 "L: goto M" 的跳转直接跳到 M
+// 4. 删除跳到紧接着的标号的跳转、不可达的基本块和没有被引用的标号
+// 3、4 反复进行直到程序不再变化
+public class ControlFlowGraph {
+
+    private static final int NONE = TACGenerator.NONE;
+
+    private final TACGenerator g;
+
+    // 指令，按字段分开存放
+    private TACGenerator.Op[] op;
+    private int[] arg1, arg2, result;
+    private int n;
+
+    // 基本块: 第 b 块是指令 [blockStart[b], blockStart[b+1])
+    private int blockCount;
+    private int[] blockStart = new int[1];
+    private int[] blockOf = new int[0];         // 指令 -> 所在的块
+
+    // 统计
+    private int before, labelsMerged, loopsInverted, jumpsThreaded, jumpsRemoved, unreachable, labelsRemoved;
+
+    public ControlFlowGraph(TACGenerator g) {
+        this.g = g;
+        n = g.size();
+        op = new TACGenerator.Op[n];
+        arg1 = new int[n];
+        arg2 = new int[n];
+        result = new int[n];
+        for (int i = 0; i < n; i++) {
+            op[i] = g.op(i);
+            arg1[i] = g.arg1(i);
+            arg2[i] = g.arg2(i);
+            result[i] = g.result(i);
+        }
+        before = n;
+        build();
+    }
+
+    // ---------------- 控制流图 ----------------
+
+    private static boolean isJump(TACGenerator.Op o) {
+        return o == TACGenerator.Op.GOTO || o.isIfFalse();
+    }
+
+    // 划分基本块
+    private void build() {
+        blockStart = new int[n + 2];
+        blockOf = new int[n];
+        blockCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || op[i] == TACGenerator.Op.LABEL || isJump(op[i - 1])) blockStart[blockCount++] = i;
+            blockOf[i] = blockCount - 1;
+        }
+        blockStart[blockCount] = n;
+    }
+
+    public int blockCount() { return blockCount; }
+
+    public int blockStart(int b) { return blockStart[b]; }
+
+    public int blockEnd(int b) { return blockStart[b + 1]; }
+
+    // 第 b 块的后继块
+    public int[] successors(int b) {
+        return successors(b, labelPositions());
+    }
+
+    private int[] successors(int b, int[] at) {
+        int last = blockStart[b + 1] - 1;
+        int next = b + 1 < blockCount ? b + 1 : NONE;
+        TACGenerator.Op o = op[last];
+        if (o == TACGenerator.Op.GOTO) return new int[]{blockOf[at[result[last]]]};
+        if (o.isIfFalse()) {
+            int target = blockOf[at[result[last]]];
+            return next == NONE || next == target ? new int[]{target} : new int[]{next, target};
+        }
+        return next == NONE ? new int[0] : new int[]{next};
+    }
+
+    // 标号 -> 所在的指令
+    private int[] labelPositions() {
+        int[] at = new int[g.operandCount()];
+        Arrays.fill(at, NONE);
+        for (int i = 0; i < n; i++) {
+            if (op[i] == TACGenerator.Op.LABEL) at[result[i]] = i;
+        }
+        return at;
+    }
+
+    // ---------------- 优化 ----------------
+
+    // 运行全部优化并写回 TACGenerator
+    public ControlFlowGraph optimize() {
+        mergeLabels();
+        invertLoops();
+        boolean changed;
+        do {
+            changed = threadJumps();
+            changed |= removeJumpsToNext();
+            changed |= removeUnreachable();
+            changed |= removeUnusedLabels();
+        } while (changed);
+        g.replaceProgram(op, arg1, arg2, result, n);
+        return this;
+    }
+
+    // 相邻的标号只留第一个，跳到其余标号的改成跳到它
+    private void mergeLabels() {
+        int[] alias = identity();
+        for (int i = 1; i < n; i++) {
+            if (op[i] == TACGenerator.Op.LABEL && op[i - 1] == TACGenerator.Op.LABEL) {
+                alias[result[i]] = alias[result[i - 1]];
+                labelsMerged++;
+            }
+        }
+        for (int i = 1; i < n; i++) {
+            if (op[i] == TACGenerator.Op.LABEL && alias[result[i]] != result[i]) op[i] = null;
+        }
+        retarget(alias);
+        compact();
+    }
+
+    private void invertLoops() {
+        int[] at = labelPositions();
+        boolean[] isDouble = TACInterpreter.inferTypes(g);
+        int m = n;
+        // 每条指令之前要插入的内容: 循环头的 ifFalse 之后插入 Lbody，回跳的 goto 换成条件副本和反向跳转
+        int[] bodyLabel = new int[m];       // ifFalse 之后的新标号
+        int[] headerOf = new int[m];        // 回跳 goto -> 循环头标号所在的指令
+        Arrays.fill(bodyLabel, NONE);
+        Arrays.fill(headerOf, NONE);
+        int extra = 0;
+        for (int k = 0; k < m; k++) {
+            if (op[k] != TACGenerator.Op.GOTO || k + 1 >= m || op[k + 1] != TACGenerator.Op.LABEL) continue;
+            int i = at[result[k]];
+            if (i == NONE || i >= k) continue;
+            // 循环头: 标号之后是一段顺序执行的条件代码，然后是跳出循环的 ifFalse
+            int j = i + 1;
+            while (j < k && (op[j] == TACGenerator.Op.ASSIGN || op[j].isBinary())) j++;
+            if (j >= k || !op[j].isIfFalse() || result[j] != result[k + 1] || bodyLabel[j] != NONE) continue;
+            if (isDouble[arg1[j]] || isDouble[arg2[j]]) continue;
+            bodyLabel[j] = g.newLabel();
+            headerOf[k] = i;
+            extra += j - i;             // 条件代码和跳转的副本，替换掉 goto
+            loopsInverted++;
+        }
+        if (loopsInverted == 0) return;
+
+        TACGenerator.Op[] op2 = new TACGenerator.Op[m + extra + loopsInverted];
+        int[] a1 = new int[op2.length], a2 = new int[op2.length], r2 = new int[op2.length];
+        int w = 0;
+        for (int k = 0; k < m; k++) {
+            if (headerOf[k] != NONE) {
+                // 条件副本，临时变量换成新的
+                int i = headerOf[k], j = i + 1;
+                while (!op[j].isIfFalse()) j++;
+                int[] rename = new int[g.operandCount()];
+                Arrays.fill(rename, NONE);
+                for (int q = i + 1; q < j; q++) {
+                    op2[w] = op[q];
+                    a1[w] = renamed(rename, arg1[q]);
+                    a2[w] = renamed(rename, arg2[q]);
+                    int r = result[q];
+                    if (g.kind(r) == TACGenerator.TEMP) r = rename[r] = g.newTemp();
+                    r2[w++] = r;
+                }
+                op2[w] = negate(op[j]);
+                a1[w] = renamed(rename, arg1[j]);
+                a2[w] = renamed(rename, arg2[j]);
+                r2[w++] = bodyLabel[j];
+                continue;
+            }
+            op2[w] = op[k];
+            a1[w] = arg1[k];
+            a2[w] = arg2[k];
+            r2[w++] = result[k];
+            if (bodyLabel[k] != NONE) {
+                op2[w] = TACGenerator.Op.LABEL;
+                a1[w] = a2[w] = NONE;
+                r2[w++] = bodyLabel[k];
+            }
+        }
+        op = op2;
+        arg1 = a1;
+        arg2 = a2;
+        result = r2;
+        n = w;
+    }
+
+    private static int renamed(int[] rename, int operand) {
+        return operand != NONE && operand < rename.length && rename[operand] != NONE ? rename[operand] : operand;
+    }
+
+    // 条件为假时跳转 -> 条件为真时跳转，只对整数成立
+    private static TACGenerator.Op negate(TACGenerator.Op o) {
+        switch (o) {
+            case IF_FALSE_LT: return TACGenerator.Op.IF_FALSE_GE;
+            case IF_FALSE_GE: return TACGenerator.Op.IF_FALSE_LT;
+            case IF_FALSE_GT: return TACGenerator.Op.IF_FALSE_LE;
+            case IF_FALSE_LE: return TACGenerator.Op.IF_FALSE_GT;
+            case IF_FALSE_NE: return TACGenerator.Op.IF_FALSE_EQ;
+            case IF_FALSE_EQ: return TACGenerator.Op.IF_FALSE_NE;
+            default: throw new IllegalArgumentException(o.name());
+        }
+    }
+
+    // 跳转的目标标号后面紧接着 goto M 时，直接跳到 M
+    private boolean threadJumps() {
+        int[] at = labelPositions();
+        int[] alias = identity();
+        boolean changed = false;
+        for (int i = 0; i < n; i++) {
+            if (!isJump(op[i])) continue;
+            int target = finalTarget(at, result[i]);
+            if (target != result[i]) {
+                alias[result[i]] = target;
+                changed = true;
+            }
+        }
+        if (!changed) return false;
+        for (int i = 0; i < n; i++) {
+            if (isJump(op[i]) && alias[result[i]] != result[i]) {
+                result[i] = alias[result[i]];
+                jumpsThreaded++;
+            }
+        }
+        return true;
+    }
+
+    // 沿着 "L: goto M" 走到最后的标号，遇到环时停下
+    private int finalTarget(int[] at, int label) {
+        int cur = label;
+        for (int steps = 0; steps < n; steps++) {
+            int i = at[cur] + 1;
+            while (i < n && op[i] == TACGenerator.Op.LABEL) i++;
+            if (i >= n || op[i] != TACGenerator.Op.GOTO || result[i] == cur) return cur;
+            cur = result[i];
+            if (cur == label) return label;
+        }
+        return label;
+    }
+
+    // 跳到紧接着的标号的跳转没有作用(比较没有副作用，ifFalse 也可以删)
+    private boolean removeJumpsToNext() {
+        boolean changed = false;
+        for (int i = 0; i < n; i++) {
+            if (!isJump(op[i])) continue;
+            int j = i + 1;
+            while (j < n && op[j] == TACGenerator.Op.LABEL && result[j] != result[i]) j++;
+            if (j < n && op[j] == TACGenerator.Op.LABEL) {
+                op[i] = null;
+                jumpsRemoved++;
+                changed = true;
+            }
+        }
+        if (changed) compact();
+        return changed;
+    }
+
+    // 删除从入口不可达的基本块
+    private boolean removeUnreachable() {
+        if (n == 0) return false;
+        build();
+        int[] at = labelPositions();
+        boolean[] seen = new boolean[blockCount];
+        int[] stack = new int[blockCount];
+        int sp = 0;
+        stack[sp++] = 0;
+        seen[0] = true;
+        while (sp > 0) {
+            for (int s : successors(stack[--sp], at)) {
+                if (!seen[s]) {
+                    seen[s] = true;
+                    stack[sp++] = s;
+                }
+            }
+        }
+        boolean changed = false;
+        for (int b = 0; b < blockCount; b++) {
+            if (seen[b]) continue;
+            for (int i = blockStart[b]; i < blockStart[b + 1]; i++) op[i] = null;
+            unreachable++;
+            changed = true;
+        }
+        if (changed) compact();
+        return changed;
+    }
+
+    private boolean removeUnusedLabels() {
+        boolean[] used = new boolean[g.operandCount()];
+        for (int i = 0; i < n; i++) {
+            if (isJump(op[i])) used[result[i]] = true;
+        }
+        boolean changed = false;
+        for (int i = 0; i < n; i++) {
+            if (op[i] == TACGenerator.Op.LABEL && !used[result[i]]) {
+                op[i] = null;
+                labelsRemoved++;
+                changed = true;
+            }
+        }
+        if (changed) compact();
+        return changed;
+    }
+
+    private int[] identity() {
+        int[] a = new int[g.operandCount()];
+        for (int i = 0; i < a.length; i++) a[i] = i;
+        return a;
+    }
+
+    private void retarget(int[] alias) {
+        for (int i = 0; i < n; i++) {
+            if (op[i] != null && isJump(op[i])) result[i] = alias[result[i]];
+        }
+    }
+
+    // 去掉被删除(op 为 null)的指令，之后重新划分基本块
+    private void compact() {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (op[i] == null) continue;
+            op[k] = op[i];
+            arg1[k] = arg1[i];
+            arg2[k] = arg2[i];
+            result[k] = result[i];
+            k++;
+        }
+        n = k;
+        build();
+    }
+
+    public int before() { return before; }
+
+    public int after() { return n; }
+
+    public int loopsInverted() { return loopsInverted; }
+
+    public int jumpsThreaded() { return jumpsThreaded; }
+
+    @Override
+    public String toString() {
+        return "instructions " + before + " -> " + n + " (labels merged " + labelsMerged + ", loops inverted " + loopsInverted
+                + ", jumps threaded " + jumpsThreaded + ", jumps removed " + jumpsRemoved
+                + ", unreachable blocks " + unreachable + ", labels removed " + labelsRemoved + ")";
+    }
+}
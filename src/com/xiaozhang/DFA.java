@@ -1,6 +1,8 @@
 package com.xiaozhang;
 import java.util.*;
 
+// 词法分析用的确定有限自动机
+// 由下面 init() 中的字符类和转移规则编译成: ASCII 字符类表 + 稠密的 trans[状态][字符类] 矩阵 + 接受/单词类型数组
 public class DFA {
     enum DFAState {
         START,
@@ -16,77 +18,101 @@ public class DFA {
         ACCEPT
     }
 
-
-    Map<DFAState, DFAStateNode> states = new HashMap<>();
-    DFAState start = DFAState.START;
+    // 字符类
+    static final int CC_LETTER = 0;     // 字母和 _
+    static final int CC_DIGIT = 1;
+    static final int CC_DOT = 2;
+    static final int CC_MINUS = 3;      // - 既能开始整数也能出现在运算符中
+    static final int CC_OP = 4;         // 其余运算符字符
+    static final int CC_DELIM = 5;
+    static final int CC_SPACE = 6;
+    static final int CC_OTHER = 7;
+    static final int CLASSES = 8;
+
+    static final int NONE = -1;         // 没有转移
+
+    final byte[] charClass = new byte[128];
+    final int[][] trans = new int[DFAState.values().length][CLASSES];
+    final boolean[] accept = new boolean[DFAState.values().length];
+    final Lexer.TokenType[] tokenType = new Lexer.TokenType[DFAState.values().length];
+    final int start = DFAState.START.ordinal();
+
+    // 接受状态在字母和数字上都有自环(RUN_WORD)或只在数字上有自环(RUN_DIGITS)时，
+    // 一整段这样的 ASCII 字符可以一次跳过(VectorScan)，状态和接受位置都和逐个字符走一样
+    static final byte RUN_NONE = 0, RUN_WORD = 1, RUN_DIGITS = 2;
+    final byte[] run = new byte[DFAState.values().length];
 
     DFA() {
         init();
     }
 
     private void init() {
+        Arrays.fill(charClass, (byte) CC_OTHER);
+        for (int[] row : trans) Arrays.fill(row, NONE);
+
+        // 字符类
+        charClass(CC_LETTER, "_abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        charClass(CC_DIGIT, "0123456789");
+        charClass(CC_DOT, ".");
+        charClass(CC_MINUS, "-");
+        charClass(CC_OP, "+*/=!|&%><");
+        charClass(CC_DELIM, "(){};,[]");
+        charClass(CC_SPACE, " \t\n\u000B\f\r\u001C\u001D\u001E\u001F");    // 与 Character.isWhitespace 一致
+
         // START
-        DFAStateNode start = new DFAStateNode(DFAState.START);
-        states.put(DFAState.START, start);
+        on(DFAState.START, DFAState.ID, CC_LETTER);
+        on(DFAState.START, DFAState.INT, CC_DIGIT, CC_MINUS);
+        on(DFAState.START, DFAState.DOT, CC_DOT);
+        on(DFAState.START, DFAState.OP, CC_OP);
+        on(DFAState.START, DFAState.DELIM, CC_DELIM);
 
         // ID
-        DFAStateNode id = new DFAStateNode(DFAState.ID);
-        id.accept = true;
-        id.tokenType = Lexer.TokenType.IDENTIFIER;
-        states.put(DFAState.ID, id);
+        on(DFAState.ID, DFAState.ID, CC_LETTER, CC_DIGIT);
+        accept(DFAState.ID, Lexer.TokenType.IDENTIFIER);
 
         // INT
-        DFAStateNode intS = new DFAStateNode(DFAState.INT);
-        intS.accept = true;
-        intS.tokenType = Lexer.TokenType.INT_CONST;
-        states.put(DFAState.INT, intS);
+        on(DFAState.INT, DFAState.INT, CC_DIGIT);
+        on(DFAState.INT, DFAState.FLOAT, CC_DOT);
+        accept(DFAState.INT, Lexer.TokenType.INT_CONST);
 
         // FLOAT
-        DFAStateNode floatS = new DFAStateNode(DFAState.FLOAT);
-        floatS.accept = true;
-        floatS.tokenType = Lexer.TokenType.FLOAT_CONST;
-        states.put(DFAState.FLOAT, floatS);
+        on(DFAState.FLOAT, DFAState.FLOAT, CC_DIGIT);
+        accept(DFAState.FLOAT, Lexer.TokenType.FLOAT_CONST);
 
         // DOT
-        DFAStateNode dot = new DFAStateNode(DFAState.DOT);
-        states.put(DFAState.DOT, dot);
+        on(DFAState.DOT, DFAState.FLOAT, CC_DIGIT);
 
         // OP
-        DFAStateNode op = new DFAStateNode(DFAState.OP);
-        op.accept = true;
-        op.tokenType = Lexer.TokenType.OPERATOR;
-        states.put(DFAState.OP, op);
+        on(DFAState.OP, DFAState.OP, CC_OP, CC_MINUS);
+        accept(DFAState.OP, Lexer.TokenType.OPERATOR);
 
         // DELIM
-        DFAStateNode delim = new DFAStateNode(DFAState.DELIM);
-        delim.accept = true;
-        delim.tokenType = Lexer.TokenType.DELIMITER;
-        states.put(DFAState.DELIM, delim);
-    }
+        accept(DFAState.DELIM, Lexer.TokenType.DELIMITER);
 
-    DFAStateNode get(DFAState s) {
-        return states.get(s);
+        for (int s = 0; s < run.length; s++) {
+            if (!accept[s] || trans[s][CC_DIGIT] != s) continue;
+            run[s] = trans[s][CC_LETTER] == s ? RUN_WORD : RUN_DIGITS;
+        }
     }
 
+    private void charClass(int cls, String chars) {
+        for (int i = 0; i < chars.length(); i++) charClass[chars.charAt(i)] = (byte) cls;
+    }
 
+    private void on(DFAState from, DFAState to, int... classes) {
+        for (int c : classes) trans[from.ordinal()][c] = to.ordinal();
+    }
 
+    private void accept(DFAState s, Lexer.TokenType type) {
+        accept[s.ordinal()] = true;
+        tokenType[s.ordinal()] = type;
+    }
 
-    class DFAStateNode {
-        DFAState state;
-        Map<Character, DFAState> trans = new HashMap<>();
-        boolean accept;
-        Lexer.TokenType tokenType;
-
-        DFAStateNode(DFAState s) {
-            state = s;
-        }
-
-        void add(char c, DFAState to) {
-            trans.put(c, to);
-        }
-
-        DFAState next(char c) {
-            return trans.get(c);
-        }
+    // 非 ASCII 字符的慢速路径
+    static int classOf(char c) {
+        if (Character.isLetter(c)) return CC_LETTER;
+        if (Character.isDigit(c)) return CC_DIGIT;
+        if (Character.isWhitespace(c)) return CC_SPACE;
+        return CC_OTHER;
     }
-}
\ No newline at end of file
+}
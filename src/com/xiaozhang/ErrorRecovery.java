@@ -0,0 +1,76 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+
+// 语法错误恢复时用到的查表模拟，都在状态栈的副本上进行，不改动分析器的栈
+// 短语级恢复: 在出错的单词前补一个单词(如漏掉的 ';')，补上之后补的单词和当前单词都能被移进才采用
+// 紧急恢复: 跳过单词直到 ';' 或 '}'，再从栈顶往下找一个在某个非终结符上有 goto 的状态，
+//          把中间的部分当作这个非终结符归约掉，要求 goto 之后的状态能接受当前单词
+final class ErrorRecovery {
+
+    private ErrorRecovery() {}
+
+    // 把 stack[0..depth) 当作状态栈，从 term 开始模拟分析，能移进或接受返回 true
+    static boolean accepts(ParseTables t, int[] stack, int depth, int term) {
+        int[] st = Arrays.copyOf(stack, depth + 1);
+        int top = depth;
+        while (true) {
+            int act = t.action(st[top - 1], term);
+            if (act == ParseTables.ERROR) return false;
+            if (act >= 0) return true;
+            int prod = -act;
+            top -= t.prodLen[prod];
+            if (top <= 0) return false;
+            int g = t.goTo(st[top - 1], t.prodLhs[prod]);
+            if (g == ParseTables.ERROR) return false;
+            if (top == st.length) st = Arrays.copyOf(st, st.length * 2);
+            st[top++] = g;
+        }
+    }
+
+    // 先模拟到 ins 被移进，再看 term 能否继续
+    private static boolean acceptsAfter(ParseTables t, int[] stack, int depth, int ins, int term) {
+        int[] st = Arrays.copyOf(stack, depth + 1);
+        int top = depth;
+        while (true) {
+            int act = t.action(st[top - 1], ins);
+            if (act == ParseTables.ERROR || act == 0) return false;
+            if (act > 0) {
+                if (top == st.length) st = Arrays.copyOf(st, st.length * 2);
+                st[top++] = act;
+                return accepts(t, st, top, term);
+            }
+            int prod = -act;
+            top -= t.prodLen[prod];
+            if (top <= 0) return false;
+            int g = t.goTo(st[top - 1], t.prodLhs[prod]);
+            if (g == ParseTables.ERROR) return false;
+            if (top == st.length) st = Arrays.copyOf(st, st.length * 2);
+            st[top++] = g;
+        }
+    }
+
+    // 短语级恢复: 返回可以补在 term 前面的单词，没有时返回 -1
+    static int insertion(ParseTables t, int[] stack, int depth, int term, int[] candidates) {
+        for (int ins : candidates) {
+            if (ins != term && acceptsAfter(t, stack, depth, ins, term)) return ins;
+        }
+        return -1;
+    }
+
+    // 紧急恢复: 返回 (保留的栈深度 << 32) | 非终结符编号，找不到时返回 -1
+    static long resume(ParseTables t, int[] stack, int depth, int term) {
+        int nts = t.nonterminals.length;
+        for (int d = depth; d >= 1; d--) {
+            int s = stack[d - 1];
+            for (int nt = 0; nt < nts; nt++) {
+                int g = t.goTo(s, nt);
+                if (g == ParseTables.ERROR) continue;
+                int[] st = Arrays.copyOf(stack, d + 1);
+                st[d] = g;
+                if (accepts(t, st, d + 1, term)) return ((long) d << 32) | nt;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,76 @@
+package com.xiaozhang;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JDK Flight Recorder 事件
+// 没有在录制时 new 出来的事件对象会被 JIT 消除，isEnabled()/shouldCommit() 直接为 false
+// 单词和归约事件数量很大，默认关闭，需要时在 .jfc 中打开 com.xiaozhang.Token#enabled / com.xiaozhang.Reduce#enabled
+final class Events {
+
+    private Events() {}
+
+    @Name("com.xiaozhang.Token")
+    @Label("Token")
+    @Category({"BLYL", "Lexer"})
+    @Description("A token returned by Lexer.nextToken")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Token extends Event {
+        @Label("Type")
+        String type;
+
+        @Label("Lexeme")
+        String lexeme;
+
+        @Label("Line")
+        int line;
+
+        @Label("Column")
+        int col;
+    }
+
+    @Name("com.xiaozhang.Parse")
+    @Label("Parse")
+    @Category({"BLYL", "Parser"})
+    @Description("One call of LR1Parser.parseAndGenerate")
+    @StackTrace(false)
+    static class Parse extends Event {
+        @Label("Success")
+        boolean success;
+
+        @Label("Tokens")
+        long tokens;
+
+        @Label("Shifts")
+        long shifts;
+
+        @Label("Reductions")
+        long reductions;
+
+        @Label("Max Stack Depth")
+        int maxDepth;
+
+        @Label("Instructions")
+        int instructions;
+    }
+
+    @Name("com.xiaozhang.Reduce")
+    @Label("Reduce")
+    @Category({"BLYL", "Parser"})
+    @Description("Code generation for one reduction in LR1Parser.generateTAC")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Reduce extends Event {
+        @Label("Production")
+        int production;
+
+        @Label("Instructions")
+        int instructions;
+    }
+}
@@ -20,6 +20,8 @@ public class Grammar {
             this.left = left;
             this.right = right;
         }
+        public String getLeft() { return left; }
+        public List<String> getRight() { return right; }
         public String toString() {
             return id + ": " + left + " -> " + String.join(" ", right);
         }
@@ -71,6 +73,12 @@ public class Grammar {
         start = "B'";
     }
 
+    // 用给定的产生式构造文法，prods 的第 0 条须为拓广产生式
+    public Grammar(String start, List<Prod> prods) {
+        this.start = start;
+        this.prods.addAll(prods);
+    }
+
 
 
     public Set<String> nonterminals() {
@@ -80,21 +88,38 @@ public class Grammar {
     }
 
     public Set<String> terminals() {
+        Set<String> nts = nonterminals();
         Set<String> s = new HashSet<>();
         for (Prod p : prods) {
             for (String r : p.right) {
-                if (!nonterminals().contains(r)) s.add(r);
+                if (!nts.contains(r)) s.add(r);
             }
         }
         return s;
     }
 
+    // 编译成只读形式(符号编号、按左部索引的产生式、可空/FIRST/FOLLOW)，之后修改 prods 不影响已编译的结果
+    public CompiledGrammar compile() {
+        return new CompiledGrammar(this);
+    }
+
     public List<Prod> getProdsFor(String nt) {
         List<Prod> res = new ArrayList<>();
         for (Prod p : prods) if (p.left.equals(nt)) res.add(p);
         return res;
     }
 
+    // 文法指纹(FNV-1a 64 位)，产生式或开始符号变化时随之改变，用作分析表缓存的键
+    public long fingerprint() {
+        long h = 0xcbf29ce484222325L;
+        String text = start + "\n" + toString();
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         for (Prod p : prods) sb.append(p).append("\n");
@@ -0,0 +1,118 @@
+package com.xiaozhang;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 读取 BNF 形式的文法文件
+//   # 注释                       以 # 开头的行
+//   %start B                     开始符号，拓广产生式 B' -> B 自动作为第 0 条
+//   %class GeneratedParser       生成的分析器类名(可选)
+//   %mode LR1                    分析表的构造方式(可选，LR1/LALR1/IELR)
+//   E -> E + T                   一行一条产生式，符号之间用空白分隔，右部为空时写 %empty
+//   | T                          以 | 开头的行是上一条产生式左部的另一个候选式
+//   {% Java 代码 %}              产生式之后另起一行的语义动作，可以跨行；$$ 是归约得到的值，$1..$n 是右部各符号的值(SemInfo)
+//                                出现在第一条产生式之前时是生成的类的成员(辅助方法等)
+// 产生式按出现的顺序编号(从 1 开始)
+public final class GrammarFile {
+
+    public final Grammar grammar;
+    public final String className;
+    public final LR1Builder.Mode mode;
+    final String members;           // 生成的类的成员，没有时为空串
+    final String[] actions;         // 产生式编号 -> 语义动作，没有时为 null
+
+    private GrammarFile(Grammar grammar, String className, LR1Builder.Mode mode, String members, String[] actions) {
+        this.grammar = grammar;
+        this.className = className;
+        this.mode = mode;
+        this.members = members;
+        this.actions = actions;
+    }
+
+    public static GrammarFile read(Path file) throws IOException {
+        return parse(file.getFileName().toString(), Files.readString(file));
+    }
+
+    public static GrammarFile parse(String name, String text) {
+        String[] lines = text.split("\r?\n", -1);
+        String start = null, className = "GeneratedParser";
+        LR1Builder.Mode mode = LR1Builder.Mode.LR1;
+        List<Grammar.Prod> prods = new ArrayList<>();
+        List<String> actions = new ArrayList<>();
+        prods.add(null);
+        actions.add(null);
+        String left = null;
+        String members = "";
+
+        for (int ln = 0; ln < lines.length; ln++) {
+            String line = lines[ln].trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String where = name + ":" + (ln + 1) + ": ";
+
+            // 语义动作
+            if (line.startsWith("{%")) {
+                if (actions.get(actions.size() - 1) != null || (prods.size() == 1 && !members.isEmpty()))
+                    throw new IllegalArgumentException(where + "second action for one production");
+                StringBuilder code = new StringBuilder();
+                String rest = line.substring(2);
+                int end;
+                while ((end = rest.indexOf("%}")) < 0) {
+                    code.append(rest).append('\n');
+                    if (++ln == lines.length) throw new IllegalArgumentException(where + "unterminated action");
+                    rest = lines[ln];
+                }
+                if (!rest.substring(end + 2).isBlank()) throw new IllegalArgumentException(name + ":" + (ln + 1) + ": text after %}");
+                code.append(rest, 0, end);
+                if (prods.size() == 1) members = code.toString();
+                else actions.set(actions.size() - 1, code.toString());
+                continue;
+            }
+
+            if (line.startsWith("%")) {
+                String[] w = line.split("\\s+");
+                if (w.length != 2) throw new IllegalArgumentException(where + "expected '" + w[0] + " <value>'");
+                switch (w[0]) {
+                    case "%start": start = w[1]; break;
+                    case "%class": className = w[1]; break;
+                    case "%mode":
+                        try {
+                            mode = LR1Builder.Mode.valueOf(w[1]);
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException(where + "unknown mode " + w[1]);
+                        }
+                        break;
+                    default: throw new IllegalArgumentException(where + "unknown directive " + w[0]);
+                }
+                continue;
+            }
+
+            String right;
+            if (line.startsWith("|")) {
+                if (left == null) throw new IllegalArgumentException(where + "'|' without a preceding production");
+                right = line.substring(1);
+            } else {
+                int arrow = line.indexOf("->");
+                if (arrow <= 0) throw new IllegalArgumentException(where + "expected 'left -> right'");
+                left = line.substring(0, arrow).trim();
+                if (left.isEmpty() || left.contains(" ")) throw new IllegalArgumentException(where + "bad left side '" + left + "'");
+                right = line.substring(arrow + 2);
+            }
+            List<String> syms = right.isBlank() ? List.of() : Arrays.asList(right.trim().split("\\s+"));
+            if (syms.equals(List.of("%empty"))) syms = List.of();
+            else if (syms.isEmpty()) throw new IllegalArgumentException(where + "empty right side, write %empty");
+            prods.add(new Grammar.Prod(prods.size(), left, syms));
+            actions.add(null);
+        }
+        if (start == null) throw new IllegalArgumentException(name + ": missing %start");
+        if (prods.size() == 1) throw new IllegalArgumentException(name + ": no productions");
+        final String s = start;
+        if (prods.stream().skip(1).noneMatch(p -> p.left.equals(s)))
+            throw new IllegalArgumentException(name + ": no production for start symbol " + start);
+        prods.set(0, new Grammar.Prod(0, start + "'", List.of(start)));
+        return new GrammarFile(new Grammar(start + "'", prods), className, mode, members, actions.toArray(new String[0]));
+    }
+}
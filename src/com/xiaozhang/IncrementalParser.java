@@ -0,0 +1,332 @@
+package com.xiaozhang;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// 增量分析: 保留上一次的单词序列和带 LR 状态的语法树，编辑之后只重新分析受影响的部分
+// - 词法: 从改动处前一个单词的末尾开始重新识别，直到新单词在改动之后与某个旧单词对齐
+// - 语法: 改动之前的部分直接恢复当时的分析栈；改动之后，若栈顶状态与某棵旧子树开始时的状态相同，整棵子树一次移进
+// - 三地址码: 复用子树的语义值(代码片段)，只有重新归约的产生式才生成代码
+// 一个 IncrementalParser 对应一份正在编辑的源程序，不能被多个线程同时使用
+public class IncrementalParser {
+
+    private final ParseTables tables;
+    private final Map<String, Integer> ids;
+
+    private final StringBuilder text = new StringBuilder();
+
+    // 单词，按列存放，最后一个是 EOF
+    private int n;
+    private int[] start = new int[0];
+    private int[] length = new int[0];
+    private int[] term = new int[0];
+    private String[] lexeme = new String[0];
+
+    // 每个单词位置上的分析信息
+    private Frame[] snap = new Frame[0];       // 移进第 i 个单词之后(用下一个单词归约之前)的分析栈，null 表示不可用
+    private Node[] startsAt = new Node[0];     // 从第 i 个单词开始的最外层子树
+
+    private TACGenerator tac;
+
+    // 最近一次分析的统计
+    private int relexed, shifted, reused, reduced;
+
+    public IncrementalParser(LR1Parser parser) {
+        this.tables = parser.tables();
+        this.ids = parser.terminalIds();
+    }
+
+    // 语法树结点
+    // 一棵子树只由它覆盖的单词、开始时的栈顶状态和其后的一个单词决定，与所在位置无关，因此可以跨编辑复用
+    static final class Node {
+        final int sym;                  // 终结符或非终结符编号
+        final boolean terminal;
+        final int leftState;            // 开始分析这棵子树时的栈顶状态
+        final int count;                // 覆盖的单词数
+        final Node[] kids;
+        final LR1Parser.SemInfo val;
+
+        Node(int sym, boolean terminal, int leftState, int count, Node[] kids, LR1Parser.SemInfo val) {
+            this.sym = sym;
+            this.terminal = terminal;
+            this.leftState = leftState;
+            this.count = count;
+            this.kids = kids;
+            this.val = val;
+        }
+    }
+
+    // 分析栈，用不可变的链表表示，保存某一时刻的栈只需要保存栈顶
+    static final class Frame {
+        final Node node;
+        final int state;
+        final int start;                // node 的第一个单词
+        final Frame below;
+
+        Frame(Node node, int state, int start, Frame below) {
+            this.node = node;
+            this.state = state;
+            this.start = start;
+            this.below = below;
+        }
+    }
+
+    // 分析整个程序，丢弃之前保留的信息
+    public LR1Parser.ParseResult parse(String source) {
+        text.setLength(0);
+        text.append(source);
+        return parseAll();
+    }
+
+    // 把 [offset, offset+removed) 替换成 inserted 后重新分析
+    public LR1Parser.ParseResult edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > text.length())
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + removed) + ") outside text of length " + text.length());
+        text.replace(offset, offset + removed, inserted);
+        // 没有旧结果，或者不再使用的代码片段太多时整体重新分析
+        if (n == 0 || tac.pendingSize() > 4 * tac.size() + 4096) return parseAll();
+
+        relexed = shifted = reused = reduced = 0;
+        int delta = inserted.length() - removed;
+        int oldEnd = offset + removed;              // 旧文本中改动的末尾
+        int newEnd = offset + inserted.length();    // 新文本中改动的末尾
+
+        // 第一个可能受影响的单词: 结束位置(含向后多看的一个字符)到达改动处
+        int a = 0, hi = n - 1;
+        while (a < hi) {
+            int mid = (a + hi) >>> 1;
+            if (start[mid] + length[mid] >= offset) hi = mid;
+            else a = mid + 1;
+        }
+
+        // 从前一个单词的末尾开始重新识别，直到与改动之后的某个旧单词 b 对齐
+        int from = a == 0 ? 0 : start[a - 1] + length[a - 1];
+        Lexer lx = new Lexer(CharBuffer.wrap(text, from, text.length()), ids);
+        Relexed re = new Relexed();
+        int b = a;
+        while (true) {
+            int t = lx.advance();
+            int s = from + lx.tokenStart();
+            if (lx.type() == Lexer.TokenType.EOF) {
+                re.add(s, 0, LR1Parser.terminalOf(tables, lx, t), lexemeOf(lx));
+                b = n;
+                break;
+            }
+            if (s >= newEnd) {
+                while (b < n - 1 && (start[b] < oldEnd || start[b] + delta < s)) b++;
+                if (b < n - 1 && start[b] >= oldEnd && start[b] + delta == s) break;
+            }
+            re.add(s, lx.tokenLength(), LR1Parser.terminalOf(tables, lx, t), lexemeOf(lx));
+        }
+        relexed = re.size;
+        splice(a, b, re, delta);
+
+        // 恢复改动之前最近一个可用的分析栈
+        int q = a - 1;
+        while (q >= 0 && snap[q] == null) q--;
+        Frame top = q >= 0 ? snap[q] : new Frame(null, 0, 0, null);
+        // 跨过恢复点的旧子树已经失效，这些子树的开始位置上一定有栈中的结点，改回栈中的结点
+        for (Frame f = top; f.node != null; f = f.below) {
+            startsAt[f.start] = f.node.terminal ? null : f.node;
+        }
+        return run(top, q + 1, a + re.size);
+    }
+
+    private LR1Parser.ParseResult parseAll() {
+        Lexer lx = new Lexer(CharBuffer.wrap(text, 0, text.length()), ids);
+        Relexed re = new Relexed();
+        do {
+            int t = lx.advance();
+            re.add(lx.tokenStart(), lx.tokenLength(), LR1Parser.terminalOf(tables, lx, t), lexemeOf(lx));
+        } while (lx.type() != Lexer.TokenType.EOF);
+
+        n = 0;
+        start = new int[0];
+        length = new int[0];
+        term = new int[0];
+        lexeme = new String[0];
+        snap = new Frame[0];
+        startsAt = new Node[0];
+        tac = new TACGenerator();
+        relexed = re.size;
+        shifted = reused = reduced = 0;
+        splice(0, 0, re, 0);
+        return run(new Frame(null, 0, 0, null), 0, n);
+    }
+
+    // 用重新识别的单词替换旧单词 [a, b)，之后的单词偏移加上 delta
+    // 之后的位置上保存的分析栈包含改动部分，全部作废；子树与位置无关，随单词一起平移
+    private void splice(int a, int b, Relexed re, int delta) {
+        int newN = a + re.size + (n - b);
+        if (newN > start.length) {
+            int cap = Math.max(newN, start.length + (start.length >> 1) + 16);
+            start = Arrays.copyOf(start, cap);
+            length = Arrays.copyOf(length, cap);
+            term = Arrays.copyOf(term, cap);
+            lexeme = Arrays.copyOf(lexeme, cap);
+            snap = Arrays.copyOf(snap, cap);
+            startsAt = Arrays.copyOf(startsAt, cap);
+        }
+        int to = a + re.size;
+        System.arraycopy(start, b, start, to, n - b);
+        System.arraycopy(length, b, length, to, n - b);
+        System.arraycopy(term, b, term, to, n - b);
+        System.arraycopy(lexeme, b, lexeme, to, n - b);
+        System.arraycopy(startsAt, b, startsAt, to, n - b);
+        for (int i = to; i < newN; i++) start[i] += delta;
+
+        System.arraycopy(re.start, 0, start, a, re.size);
+        System.arraycopy(re.length, 0, length, a, re.size);
+        System.arraycopy(re.term, 0, term, a, re.size);
+        System.arraycopy(re.lexeme, 0, lexeme, a, re.size);
+        Arrays.fill(startsAt, a, to, null);
+        Arrays.fill(snap, a, Math.max(n, newN), null);
+        if (newN < n) Arrays.fill(startsAt, newN, n, null);
+        n = newN;
+    }
+
+    // 从栈 top、第 k 个单词开始分析；reuseFrom 之后的单词没有改动，可以复用旧子树
+    private LR1Parser.ParseResult run(Frame top, int k, int reuseFrom) {
+        while (true) {
+            int s = top.state;
+            if (k >= reuseFrom) {
+                Frame f = reuse(top, k);
+                if (f != null) {
+                    int c = f.node.count;
+                    Arrays.fill(snap, k, k + c, null);     // 子树内部的分析栈没有重建
+                    startsAt[k] = f.node;
+                    top = f;
+                    k += c;
+                    reused++;
+                    continue;
+                }
+            }
+
+            int a = term[k];
+            int act = tables.action(s, a);
+            if (act == ParseTables.ERROR) {
+                fail(k, reuseFrom);
+                // 与 LR1Parser 报告的第一个错误相同
+                String at = line(start[k]) + ":" + col(start[k]);
+                String msg = lexeme[k] == null ? "Lexical error at " + at + ": illegal character"
+                        : "Syntax error at " + at + " near '" + lexeme[k] + "'";
+                return new LR1Parser.ParseResult(List.of(msg));
+            } else if (act == 0) {
+                tac.relink(top.node.val.code);
+                LR1Parser.ParseResult r = new LR1Parser.ParseResult(true, tac.getCode(), "OK");
+                r.tac = tac;
+                return r;
+            } else if (act > 0) {
+                Node leaf = new Node(a, true, s, 1, new Node[0], new LR1Parser.SemInfo(lexeme[k]));
+                top = new Frame(leaf, act, k, top);
+                snap[k] = top;
+                startsAt[k] = null;
+                k++;
+                shifted++;
+            } else {
+                int prodId = -act;
+                int len = tables.prodLen[prodId];
+                Node[] kids = new Node[len];
+                int first = k, count = 0;
+                for (int i = len - 1; i >= 0; i--) {
+                    kids[i] = top.node;
+                    count += top.node.count;
+                    first = top.start;
+                    top = top.below;
+                }
+                LR1Parser.SemInfo[] vals = new LR1Parser.SemInfo[len];
+                String[] texts = new String[len];
+                for (int i = 0; i < len; i++) {
+                    vals[i] = kids[i].val;
+                    texts[i] = kids[i].val.text;
+                }
+                LR1Parser.SemInfo val = LR1Parser.generateTAC(tac, prodId, vals, texts, 0);
+                int lhs = tables.prodLhs[prodId];
+                int g = tables.goTo(top.state, lhs);
+                if (g == ParseTables.ERROR) {
+                    fail(k, reuseFrom);
+                    String msg = "Parsing error: no goto from state " + top.state + " on " + tables.nonterminals[lhs];
+                    return new LR1Parser.ParseResult(List.of(msg));
+                }
+                Node node = new Node(lhs, false, top.state, count, kids, val);
+                top = new Frame(node, g, first, top);
+                if (len > 0) startsAt[first] = node;
+                reduced++;
+            }
+        }
+    }
+
+    // 分析在第 k 个单词处出错: 之后的分析栈都没有重建；改动之前还没分析到的位置上可能留有跨过改动的旧子树
+    private void fail(int k, int reuseFrom) {
+        Arrays.fill(snap, k, n, null);
+        if (k < reuseFrom) Arrays.fill(startsAt, k, reuseFrom, null);
+    }
+
+    // 从第 k 个单词开始、能在当前栈顶状态下整体移进的旧子树，压栈后返回新的栈顶
+    // 外层子树没有 GOTO(如拓广文法的开始符号)或一直延伸到 EOF 时试它的第一个孩子，两者开始状态相同
+    private Frame reuse(Frame top, int k) {
+        for (Node r = startsAt[k]; r != null && !r.terminal; r = r.kids.length > 0 ? r.kids[0] : null) {
+            if (r.leftState != top.state || r.count == 0) return null;
+            if (k + r.count >= n) continue;
+            int g = tables.goTo(top.state, r.sym);
+            if (g != ParseTables.ERROR) return new Frame(r, g, k, top);
+        }
+        return null;
+    }
+
+    private int line(int offset) {
+        int line = 1;
+        for (int i = 0; i < offset && i < text.length(); i++) if (text.charAt(i) == '\n') line++;
+        return line;
+    }
+
+    private int col(int offset) {
+        int i = Math.min(offset, text.length());
+        while (i > 0 && text.charAt(i - 1) != '\n') i--;
+        return offset - i + 1;
+    }
+
+    public String text() { return text.toString(); }
+
+    public int tokenCount() { return n; }
+
+    // 最近一次分析重新识别的单词数、移进的单词数、整棵复用的子树数和归约次数
+    public int relexedTokens() { return relexed; }
+
+    public int shiftedTokens() { return shifted; }
+
+    public int reusedSubtrees() { return reused; }
+
+    public int reductions() { return reduced; }
+
+    // 重新识别出的单词
+    // 非法字符不会被移进，单词记为 null
+    private static String lexemeOf(Lexer lx) {
+        return lx.type() == Lexer.TokenType.ERROR ? null : lx.lexeme();
+    }
+
+    private static final class Relexed {
+        int[] start = new int[16];
+        int[] length = new int[16];
+        int[] term = new int[16];
+        String[] lexeme = new String[16];
+        int size;
+
+        void add(int s, int len, int t, String lex) {
+            if (size == start.length) {
+                int cap = size * 2;
+                start = Arrays.copyOf(start, cap);
+                length = Arrays.copyOf(length, cap);
+                term = Arrays.copyOf(term, cap);
+                lexeme = Arrays.copyOf(lexeme, cap);
+            }
+            start[size] = s;
+            length[size] = len;
+            term[size] = t;
+            lexeme[size] = lex;
+            size++;
+        }
+    }
+}
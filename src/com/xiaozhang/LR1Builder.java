@@ -0,0 +1,489 @@
+package com.xiaozhang;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// LR(1) 项目集规范族的构造
+// 项目打包成一个 long: 产生式编号(高 24 位) | · 的位置(16 位) | 展望符编号(低 24 位)
+// 求闭包用工作表，每个 (非终结符, 展望符) 只展开一次；状态按核心项目去重；每条转移只计算一次
+// 同一层状态的闭包和转移可以并行计算，状态编号与单线程构造相同
+public class LR1Builder {
+
+    // 构造方式: 规范 LR(1)；LALR(1) 合并同心状态；IELR 式合并只在不引入新冲突时合并
+    public enum Mode { LR1, LALR1, IELR }
+
+    final CompiledGrammar grammar;
+    // 以下都取自 grammar
+    final String[] terminals;       // 终结符，最后一个是 "$"
+    final String[] nonterminals;
+    final int nT, nN;               // 符号编号: 终结符 [0,nT)，非终结符 [nT,nT+nN)
+    final int eof;                  // "$" 的编号
+    final int[] lhs;                // 产生式左部(非终结符序号)
+    final int[][] rhs;              // 产生式右部(符号编号)
+    final int[][] prodsOf;          // 每个非终结符的产生式
+
+    // 构造结果，每个状态只保存核心项目，闭包用完即弃
+    final List<long[]> kernels = new ArrayList<>();    // 每个状态的核心项目(有序)
+    final List<int[]> trans = new ArrayList<>();       // 每个状态的转移: 符号, 目标状态 交替存放
+    final List<int[]> reduces = new ArrayList<>();     // 每个状态的归约: 展望符, 产生式 交替存放
+    final List<String> conflicts = new ArrayList<>();  // 填表时发现的冲突
+
+    private final Map<Kernel, Integer> stateIds = new HashMap<>();
+
+    public LR1Builder(Grammar g) {
+        this(g.compile());
+    }
+
+    public LR1Builder(CompiledGrammar g) {
+        grammar = g;
+        terminals = g.terminals;
+        nonterminals = g.nonterminals;
+        nT = g.nT;
+        nN = g.nN;
+        eof = g.eof;
+        lhs = g.lhs;
+        rhs = g.rhs;
+        prodsOf = g.prodsOf;
+    }
+
+    static long pack(int prod, int dot, int la) {
+        return ((long) prod << 40) | ((long) dot << 24) | la;
+    }
+    static int prodOf(long item) { return (int) (item >>> 40); }
+    static int dotOf(long item) { return (int) (item >>> 24) & 0xFFFF; }
+    static int laOf(long item) { return (int) item & 0xFFFFFF; }
+
+    // 构造所有状态，状态按发现的先后(广度优先，符号编号从小到大)编号
+    public void build() {
+        build(ForkJoinPool.commonPool());
+    }
+
+    // 按层并行构造: 同一层(上一轮新发现的状态)的闭包和后继核心在 pool 上并行计算，
+    // 然后按状态、符号的顺序依次去重编号，因此编号与单线程的广度优先完全一致
+    public void build(ForkJoinPool pool) {
+        kernels.clear();
+        trans.clear();
+        reduces.clear();
+        stateIds.clear();
+        long[] k0 = {pack(0, 0, eof)};
+        stateIds.put(new Kernel(k0), 0);
+        kernels.add(k0);
+
+        int lo = 0;
+        while (lo < kernels.size()) {
+            int hi = kernels.size();
+            Successors[] out = new Successors[hi - lo];
+            if (hi - lo < PARALLEL_LEVEL) new ExpandTask(out, lo, lo, hi).compute();
+            else pool.invoke(new ExpandTask(out, lo, lo, hi));
+
+            for (Successors su : out) {
+                reduces.add(su.reduces);
+                int[] t = new int[su.symbols.length * 2];
+                for (int k = 0; k < su.symbols.length; k++) {
+                    Integer j = stateIds.get(su.next[k]);
+                    if (j == null) {
+                        j = kernels.size();
+                        stateIds.put(su.next[k], j);
+                        kernels.add(su.next[k].items);
+                    }
+                    t[2 * k] = su.symbols[k];
+                    t[2 * k + 1] = j;
+                }
+                trans.add(t);
+            }
+            lo = hi;
+        }
+    }
+
+    private static final int PARALLEL_LEVEL = 64;  // 一层的状态数少于这个值时直接在当前线程计算
+    private static final int LEAF = 16;            // 每个任务最多处理的状态数
+
+    // 一个状态的归约和各符号上的后继核心(符号从小到大)
+    static final class Successors {
+        final int[] reduces;
+        final int[] symbols;
+        final Kernel[] next;
+
+        Successors(int[] reduces, int[] symbols, Kernel[] next) {
+            this.reduces = reduces;
+            this.symbols = symbols;
+            this.next = next;
+        }
+    }
+
+    // 计算 kernels[from, to) 的后继，结果写入 out[s - base]；任务不会被序列化
+    @SuppressWarnings("serial")
+    private final class ExpandTask extends RecursiveAction {
+        final Successors[] out;
+        final int base, from, to;
+
+        ExpandTask(Successors[] out, int base, int from, int to) {
+            this.out = out;
+            this.base = base;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF) {
+                Expander e = new Expander();
+                for (int s = from; s < to; s++) out[s - base] = e.successors(kernels.get(s));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ExpandTask(out, base, from, mid), new ExpandTask(out, base, mid, to));
+        }
+    }
+
+    // 按指定方式构造：先得到规范 LR(1) 项目集族，再按划分合并状态
+    public void build(Mode mode) {
+        build(mode, ForkJoinPool.commonPool());
+    }
+
+    public void build(Mode mode, ForkJoinPool pool) {
+        build(pool);
+        if (mode == Mode.LR1) return;
+        int[] block = coreBlocks();
+        if (mode == Mode.IELR) {
+            block = splitConflicts(block);
+            block = refine(block);
+        }
+        merge(block);
+    }
+
+    // 按 LR(0) 核心(去掉展望符的核心项目)划分状态
+    private int[] coreBlocks() {
+        int n = kernels.size();
+        int[] block = new int[n];
+        Map<Kernel, Integer> ids = new HashMap<>();
+        for (int s = 0; s < n; s++) {
+            long[] k = kernels.get(s);
+            long[] core = new long[k.length];
+            int m = 0;
+            for (long it : k) {
+                long c = it & ~0xFFFFFFL;
+                if (m == 0 || core[m - 1] != c) core[m++] = c;
+            }
+            Kernel key = new Kernel(Arrays.copyOf(core, m));
+            Integer b = ids.get(key);
+            if (b == null) {
+                b = ids.size();
+                ids.put(key, b);
+            }
+            block[s] = b;
+        }
+        return block;
+    }
+
+    // 同心状态合并后若出现成员自身没有的冲突，就把这一组贪心地拆成若干互不冲突的小组
+    private int[] splitConflicts(int[] block) {
+        List<List<Integer>> groups = groups(block);
+        int[] res = new int[block.length];
+        int next = 0;
+        for (List<Integer> g : groups) {
+            List<List<Integer>> parts = new ArrayList<>();
+            for (int s : g) {
+                List<Integer> home = null;
+                for (List<Integer> part : parts) {
+                    part.add(s);
+                    boolean ok = !addsConflict(part);
+                    part.remove(part.size() - 1);
+                    if (ok) { home = part; break; }
+                }
+                if (home == null) {
+                    home = new ArrayList<>();
+                    parts.add(home);
+                }
+                home.add(s);
+            }
+            for (List<Integer> part : parts) {
+                for (int s : part) res[s] = next;
+                next++;
+            }
+        }
+        return res;
+    }
+
+    // 合并这些状态是否会引入任一成员都没有的冲突
+    private boolean addsConflict(List<Integer> members) {
+        BitSet own = new BitSet(nT);
+        for (int s : members) own.or(conflictCells(Collections.singletonList(s)));
+        BitSet merged = conflictCells(members);
+        merged.andNot(own);
+        return !merged.isEmpty();
+    }
+
+    // 把这些状态的动作合在一起后，有冲突的展望符
+    private BitSet conflictCells(List<Integer> members) {
+        final int SHIFT = Integer.MAX_VALUE;
+        int[] act = new int[nT];
+        Arrays.fill(act, ParseTables.ERROR);
+        BitSet conflict = new BitSet(nT);
+        for (int s : members) {
+            int[] t = trans.get(s);
+            for (int k = 0; k < t.length; k += 2) {
+                if (t[k] >= nT) continue;
+                if (act[t[k]] == ParseTables.ERROR) act[t[k]] = SHIFT;
+                else if (act[t[k]] != SHIFT) conflict.set(t[k]);
+            }
+            int[] r = reduces.get(s);
+            for (int k = 0; k < r.length; k += 2) {
+                int la = r[k], v = -r[k + 1];
+                if (act[la] == ParseTables.ERROR) act[la] = v;
+                else if (act[la] != v) conflict.set(la);
+            }
+        }
+        return conflict;
+    }
+
+    // 细化划分，直到同一组内所有状态的每条转移都进入同一组
+    private int[] refine(int[] block) {
+        int count = groups(block).size();
+        while (true) {
+            int[] res = new int[block.length];
+            Map<String, Integer> ids = new HashMap<>();
+            for (int s = 0; s < block.length; s++) {
+                StringBuilder key = new StringBuilder().append(block[s]);
+                int[] t = trans.get(s);
+                for (int k = 1; k < t.length; k += 2) key.append(',').append(block[t[k]]);
+                Integer b = ids.get(key.toString());
+                if (b == null) {
+                    b = ids.size();
+                    ids.put(key.toString(), b);
+                }
+                res[s] = b;
+            }
+            block = res;
+            if (ids.size() == count) return block;
+            count = ids.size();
+        }
+    }
+
+    // 按组号列出成员，组按第一个成员出现的先后排列
+    private static List<List<Integer>> groups(int[] block) {
+        Map<Integer, List<Integer>> m = new LinkedHashMap<>();
+        for (int s = 0; s < block.length; s++) m.computeIfAbsent(block[s], b -> new ArrayList<>()).add(s);
+        return new ArrayList<>(m.values());
+    }
+
+    // 按划分合并状态：核心项目取并集，转移取任一成员的(目标换成组号)，归约取并集
+    private void merge(int[] block) {
+        List<List<Integer>> groups = groups(block);
+        int[] newId = new int[block.length];
+        for (int b = 0; b < groups.size(); b++) {
+            for (int s : groups.get(b)) newId[s] = b;
+        }
+        List<long[]> mk = new ArrayList<>();
+        List<int[]> mt = new ArrayList<>();
+        List<int[]> mr = new ArrayList<>();
+        for (List<Integer> g : groups) {
+            TreeSet<Long> items = new TreeSet<>();
+            TreeSet<Long> red = new TreeSet<>();
+            for (int s : g) {
+                for (long it : kernels.get(s)) items.add(it);
+                int[] r = reduces.get(s);
+                for (int k = 0; k < r.length; k += 2) red.add(((long) r[k] << 32) | r[k + 1]);
+            }
+            long[] k = new long[items.size()];
+            int i = 0;
+            for (long it : items) k[i++] = it;
+            int[] t = trans.get(g.get(0)).clone();
+            for (int j = 1; j < t.length; j += 2) t[j] = newId[t[j]];
+            int[] r = new int[red.size() * 2];
+            i = 0;
+            for (long x : red) {
+                r[i++] = (int) (x >>> 32);
+                r[i++] = (int) x;
+            }
+            mk.add(k);
+            mt.add(t);
+            mr.add(r);
+        }
+        kernels.clear();
+        kernels.addAll(mk);
+        trans.clear();
+        trans.addAll(mt);
+        reduces.clear();
+        reduces.addAll(mr);
+        stateIds.clear();
+    }
+
+    // 各种构造方式下的状态数、冲突数和压缩后分析表的大小
+    public static String report(Grammar g) {
+        StringBuilder sb = new StringBuilder();
+        for (Mode m : Mode.values()) {
+            LR1Builder b = new LR1Builder(g);
+            b.build(m);
+            ParseTables t = b.tables();
+            sb.append(String.format("%-6s states=%d conflicts=%d table=%d ints%n",
+                    m, b.stateCount(), b.conflicts.size(), t.size()));
+            for (String c : b.conflicts) sb.append("    ").append(c).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // 状态的完整闭包(有序)，用于打印
+    long[] closureOf(int state) {
+        Expander e = new Expander();
+        e.closure(kernels.get(state));
+        long[] res = Arrays.copyOf(e.work, e.workLen);
+        Arrays.sort(res);
+        return res;
+    }
+
+    // 求闭包和后继用的缓冲区，每个线程一份
+    private final class Expander {
+        // 用工作表求闭包，结果留在 work[0..workLen)：新加入的项目追加在末尾，扫描到它时再展开
+        long[] work = new long[64];
+        int workLen;
+        final BitSet seen = new BitSet();  // 已展开的 (非终结符, 展望符)
+        final BitSet la = new BitSet();    // FIRST(β)
+
+        // 每个符号一个桶，存放 · 后是该符号的项目前进一位后的结果
+        final long[][] bucket = new long[nT + nN][];
+        final int[] bucketLen = new int[nT + nN];
+        final int[] touched = new int[nT + nN];
+        int[] red = new int[16];
+
+        Successors successors(long[] kernel) {
+            closure(kernel);
+            int nTouched = 0, nRed = 0;
+            for (int w = 0; w < workLen; w++) {
+                long it = work[w];
+                int p = prodOf(it), d = dotOf(it);
+                if (d >= rhs[p].length) {
+                    if (nRed + 2 > red.length) red = Arrays.copyOf(red, red.length * 2);
+                    red[nRed++] = laOf(it);
+                    red[nRed++] = p;
+                    continue;
+                }
+                int X = rhs[p][d];
+                if (bucketLen[X] == 0) {
+                    touched[nTouched++] = X;
+                    if (bucket[X] == null) bucket[X] = new long[8];
+                } else if (bucketLen[X] == bucket[X].length) {
+                    bucket[X] = Arrays.copyOf(bucket[X], bucketLen[X] * 2);
+                }
+                bucket[X][bucketLen[X]++] = it + (1L << 24);
+            }
+
+            Arrays.sort(touched, 0, nTouched);
+            int[] symbols = Arrays.copyOf(touched, nTouched);
+            Kernel[] next = new Kernel[nTouched];
+            for (int k = 0; k < nTouched; k++) {
+                int X = touched[k];
+                long[] items = Arrays.copyOf(bucket[X], bucketLen[X]);
+                bucketLen[X] = 0;
+                Arrays.sort(items);
+                next[k] = new Kernel(items);
+            }
+            return new Successors(Arrays.copyOf(red, nRed), symbols, next);
+        }
+
+        void closure(long[] kernel) {
+            workLen = 0;
+            seen.clear();
+            for (long it : kernel) push(it);
+            for (int i = 0; i < workLen; i++) {
+                long it = work[i];
+                int p = prodOf(it), d = dotOf(it);
+                if (d >= rhs[p].length || rhs[p][d] < nT) continue;
+                int B = rhs[p][d] - nT;
+                // 展望符为 FIRST(β a)，β 可空时包括 a
+                if (d + 1 < rhs[p].length && rhs[p][d + 1] < nT) {
+                    expand(B, rhs[p][d + 1]);
+                } else {
+                    la.clear();
+                    if (grammar.firstOfSequence(rhs[p], d + 1, la)) expand(B, laOf(it));
+                    for (int b = la.nextSetBit(0); b >= 0; b = la.nextSetBit(b + 1)) expand(B, b);
+                }
+            }
+        }
+
+        private void expand(int B, int la) {
+            int key = B * nT + la;
+            if (seen.get(key)) return;
+            seen.set(key);
+            for (int q : prodsOf[B]) push(pack(q, 0, la));
+        }
+
+        private void push(long item) {
+            if (workLen == work.length) work = Arrays.copyOf(work, workLen * 2);
+            work[workLen++] = item;
+        }
+    }
+
+    // 由状态和转移填写稠密的 ACTION/GOTO 表并压缩
+    // 冲突时移进优先，归约-归约冲突取编号小的产生式
+    public ParseTables tables() {
+        int n = kernels.size();
+        int[][] action = new int[n][nT + 1];
+        int[][] goTo = new int[n][nN];
+        conflicts.clear();
+        for (int s = 0; s < n; s++) {
+            Arrays.fill(action[s], ParseTables.ERROR);
+            Arrays.fill(goTo[s], ParseTables.ERROR);
+            int[] t = trans.get(s);
+            for (int k = 0; k < t.length; k += 2) {
+                if (t[k] < nT) action[s][t[k]] = t[k + 1];
+                else goTo[s][t[k] - nT] = t[k + 1];
+            }
+            int[] r = reduces.get(s);
+            for (int k = 0; k < r.length; k += 2) {
+                int la = r[k], p = r[k + 1];
+                int v = p == 0 ? 0 : -p;
+                int old = action[s][la];
+                if (old == ParseTables.ERROR || old == v) {
+                    action[s][la] = v;
+                } else if (old > 0) {
+                    conflicts.add("State " + s + ": shift/reduce on " + terminals[la] + " (r" + p + ")");
+                } else {
+                    conflicts.add("State " + s + ": reduce/reduce on " + terminals[la]
+                            + " (r" + (-old) + ", r" + p + ")");
+                    action[s][la] = Math.max(old, v);
+                }
+            }
+        }
+        int[] prodLen = new int[rhs.length];
+        for (int p = 0; p < rhs.length; p++) prodLen[p] = rhs[p].length;
+        return ParseTables.compress(terminals, nonterminals, action, goTo, lhs.clone(), prodLen);
+    }
+
+    public int stateCount() { return kernels.size(); }
+
+    String symbolName(int sym) {
+        return sym < nT ? terminals[sym] : nonterminals[sym - nT];
+    }
+
+    String itemToString(long item) {
+        int p = prodOf(item), d = dotOf(item);
+        StringBuilder sb = new StringBuilder();
+        sb.append(nonterminals[lhs[p]]).append(" -> ");
+        for (int i = 0; i < rhs[p].length; i++) {
+            if (i == d) sb.append("• ");
+            sb.append(symbolName(rhs[p][i])).append(" ");
+        }
+        if (d == rhs[p].length) sb.append("• ");
+        sb.append(", ").append(terminals[laOf(item)]);
+        return sb.toString();
+    }
+
+    // 以核心项目为键
+    static final class Kernel {
+        final long[] items;
+        final int hash;
+
+        Kernel(long[] items) {
+            this.items = items;
+            this.hash = Arrays.hashCode(items);
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Kernel && Arrays.equals(items, ((Kernel) o).items);
+        }
+
+        public int hashCode() { return hash; }
+    }
+}
@@ -1,223 +1,98 @@
 package com.xiaozhang;
 
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+// 构造好分析表之后只读，可以被多个线程共享；每次分析的可变状态放在 Session 中
 public class LR1Parser {
 
-    // 项目
-    static class Item {
-        int prodId;     // 产生式id
-        int dot;        // 当前 . 的位置
-        String lookahead;  // 展望符
-
-        public Item(int pid, int d, String la) { prodId = pid; dot = d; lookahead = la; }
-
-        public boolean equals(Object o) {
-            if (!(o instanceof Item)) return false;
-            Item oth = (Item)o;
-            return prodId==oth.prodId && dot==oth.dot && lookahead.equals(oth.lookahead);
-        }
-        public int hashCode() { return Objects.hash(prodId,dot,lookahead); }
-        public String toString(Grammar g) {
-            Grammar.Prod p = g.prods.get(prodId);
-            List<String> rhs = p.right;
-            StringBuilder sb=new StringBuilder();
-            sb.append(p.left).append(" -> ");
-            for (int i=0;i<rhs.size();i++) {
-                if (i==dot) sb.append("• ");
-                sb.append(rhs.get(i)+" ");
-            }
-            if (dot==rhs.size()) sb.append("• ");
-            sb.append(", ").append(lookahead);
-            return sb.toString();
-        }
-    }
+    private static final int NONE = TACGenerator.NONE;
 
     Grammar G;                                          // 文法
-    Map<Integer, Map<String, Integer>> action;          // 定义action表
-    Map<Integer, Map<String, Integer>> goTo;            // 定义goto表
-    List<Set<Item>> states;                             // LR1得到的状态集
-    Map<Set<Item>, Integer> stateIds;                   // 状态对应编号
-    Map<String, Set<String>> FIRST = new HashMap<>();   // 首符集
-    TACGenerator tacGenerator = new TACGenerator();
+    volatile ParseTables tables;                        // 压缩后的action/goto表
+    LR1Builder.Mode mode = LR1Builder.Mode.LR1;         // 状态集的构造方式
+    LR1Builder automaton;                               // LR1得到的状态集
 
     public LR1Parser(Grammar g) { G = g; }
 
-    // 计算first集
-    private void computeFirst() {
-        Set<String> terms = G.terminals();
-        terms.add("$");
-        Set<String> nonterms = G.nonterminals();
-        // 初始化终结符的first集
-        FIRST.clear();
-        for (String t : terms) FIRST.put(t, new HashSet<>(Arrays.asList(t)));
-        // 求非终结符的first集
-        for (String nt : nonterms) FIRST.put(nt, new HashSet<>());
-        boolean changed=true;
-        while (changed) {
-            changed=false;
-            for (Grammar.Prod p : G.prods) {
-                // 非终结符p.left
-                Set<String> firstL = FIRST.get(p.left);
-                List<String> rhs = p.right;
-                if (rhs.size()==0) continue;
-                // 获取产生式右部的第一个字符
-                String sym = rhs.get(0);
-                Set<String> tmp = FIRST.get(sym);
-                if (!firstL.containsAll(tmp)) {
-                    firstL.addAll(tmp);
-                    changed=true;
-                }
-            }
-        }
-    }
+    public LR1Parser(Grammar g, LR1Builder.Mode mode) { G = g; this.mode = mode; }
 
-    // 求闭包 I为初始项目集
-    private Set<Item> closure(Set<Item> I) {
-        Set<Item> C = new HashSet<>(I);
-        boolean added=true;
-        while (added) {
-            added=false;
-            Set<Item> snapshot = new HashSet<>(C);
-            for (Item it : snapshot) {
-                Grammar.Prod p = G.prods.get(it.prodId);
-                if (it.dot < p.right.size()) {
-                    // 获取 · 右边的第一个符号
-                    String B = p.right.get(it.dot);
-                    // 如果B是非终结符
-                    if (G.nonterminals().contains(B)) {
-                        // 将非终结符B右边的全部加入beta集合中，求展望符
-                        List<String> beta = new ArrayList<>();
-                        for (int k = it.dot+1; k < p.right.size(); k++) beta.add(p.right.get(k));
-                        beta.add(it.lookahead);
-                        Set<String> firstBeta = firstOfSequence(beta);
-                        // 将产生式左边为B的产生式对应的项目都加入到当前闭包中
-                        for (Grammar.Prod q : G.getProdsFor(B)) {
-                            for (String b : firstBeta) {
-                                Item newIt = new Item(q.id, 0, b);
-                                if (!C.contains(newIt)) { C.add(newIt); added=true; }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return C;
-    }
+    // 复用已经构造好的分析表
+    public LR1Parser(Grammar g, ParseTables tables) { G = g; this.tables = tables; }
 
-    // 用于求展望符
-    private Set<String> firstOfSequence(List<String> seq) {
-        Set<String> res = new HashSet<>();
-        if (seq.size()==0) return res;
-        String s0 = seq.get(0);
-        res.addAll(FIRST.getOrDefault(s0, new HashSet<>()));
-        return res;
+    // 构造状态集和分析表
+    public synchronized void buildStatesAndTables() {
+        long t0 = System.nanoTime();
+        automaton = new LR1Builder(G);
+        automaton.build(mode);
+        tables = automaton.tables();
+        Metrics.time(Metrics.Phase.TABLES, System.nanoTime() - t0);
     }
 
-    // 求状态I中能够识别符号X得到的项目集
-    private Set<Item> gotoSet(Set<Item> I, String X) {
-        Set<Item> J = new HashSet<>();
-        for (Item it : I) {
-            Grammar.Prod p = G.prods.get(it.prodId);
-            if (it.dot < p.right.size() && p.right.get(it.dot).equals(X)) {
-                J.add(new Item(it.prodId, it.dot+1, it.lookahead));
+    public int stateCount() { return tables.stateCount(); }
+
+    public ParseTables tables() {
+        ParseTables t = tables;
+        if (t == null) {
+            synchronized (this) {
+                if (tables == null) buildStatesAndTables();
+                t = tables;
             }
         }
-        return closure(J);
+        return t;
     }
 
-    // 构造状态集和分析表
-    public void buildStatesAndTables() {
-        computeFirst();
-        Item startItem = new Item(0, 0, "$");
-        Set<Item> I0 = closure(new HashSet<>(Arrays.asList(startItem)));
-        states = new ArrayList<>();
-        stateIds = new HashMap<>();
-        states.add(I0);
-        stateIds.put(I0, 0);
-
-        // 求所有状态集
-        boolean added=true;
-        while (added) {
-            added=false;
-            for (int i=0;i<states.size();i++) {
-                // 求状态可能识别的符号，即 · 右边的第一个符号
-                Set<Item> I = states.get(i);
-                Set<String> symbols = new HashSet<>();
-                for (Item it : I) {
-                    Grammar.Prod p = G.prods.get(it.prodId);
-                    if (it.dot < p.right.size()) symbols.add(p.right.get(it.dot));
-                }
-                for (String X : symbols) {
-                    Set<Item> J = gotoSet(I, X);
-                    if (J.isEmpty()) continue;
-                    if (!stateIds.containsKey(J)) {
-                        stateIds.put(J, states.size());
-                        states.add(J);
-                        added=true;
-                    }
-                }
-            }
+    // 优先从缓存文件读取分析表，缓存不存在、文法已改变或文件损坏时重新构造并写回
+    // 返回 true 表示命中缓存(此时没有状态集，printStates 不可用)
+    public synchronized boolean loadOrBuildTables(Path cacheFile) {
+        long fp = G.fingerprint() * 31 + mode.ordinal();    // 不同构造方式的表分开缓存
+        long t0 = System.nanoTime();
+        ParseTables cached = TableCache.load(cacheFile, fp);
+        if (cached != null) {
+            Metrics.time(Metrics.Phase.TABLES, System.nanoTime() - t0);
+            tables = cached;
+            return true;
         }
-
-        action = new HashMap<>();
-        goTo = new HashMap<>();
-        for (int i=0;i<states.size();i++) {
-            action.put(i, new HashMap<>());
-            goTo.put(i, new HashMap<>());
+        buildStatesAndTables();
+        try {
+            TableCache.save(cacheFile, fp, tables);
+        } catch (IOException e) {
+            System.err.println("Cannot write table cache " + cacheFile + ": " + e.getMessage());
         }
+        return false;
+    }
 
-        for (int i=0;i<states.size();i++) {
-            Set<Item> I = states.get(i);
-            for (Item it : I) {
-                Grammar.Prod p = G.prods.get(it.prodId);
-                if (it.dot < p.right.size()) {
-                    String a = p.right.get(it.dot);
-                    // 获取通过识别符号a得到状态 Jset
-                    Set<Item> Jset = gotoSet(I, a);
-                    if (!Jset.isEmpty()) {
-                        int j = stateIds.get(Jset);
-                        // 如果符号a是终结符，移进
-                        if (G.terminals().contains(a)) {
-                            action.get(i).put(a, j);
-                        } else {
-                            // 如果是非终结符，写入goto表
-                            goTo.get(i).put(a, j);
-                        }
-                    }
-                } else {
-                    // 如果 · 在产生式右部的最后，则要进行归约或acc
-                    if (p.left.equals("S'")) {
-                        // 如果是产生式0，则acc
-                        action.get(i).put("$", 0);
-                    } else {
-                        // 对展望符处的进行规约，使用-产生式id的表示
-                        String la = it.lookahead;
-                        action.get(i).put(la, -p.id);
-                    }
-                }
-            }
-        }
+    // 词法分析器用来给单词标注终结符编号
+    public Map<String, Integer> terminalIds() {
+        return tables().termIds;
     }
 
     public void printStates() {
-        for (int i=0;i<states.size();i++) {
+        if (automaton == null) {
+            System.out.println("(states not built, tables loaded from cache)");
+            return;
+        }
+        for (int i=0;i<automaton.stateCount();i++) {
             System.out.println("State " + i);
-            for (Item it : states.get(i)) {
-                System.out.println("  " + it.toString(G));
+            for (long it : automaton.closureOf(i)) {
+                System.out.println("  " + automaton.itemToString(it));
             }
         }
     }
 
     public void printTables() {
         System.out.println("ACTION table:");
-        for (int i=0;i<action.size();i++) {
-            System.out.println("State " + i + " -> " + action.get(i));
+        for (int i=0;i<tables.stateCount();i++) {
+            String def = tables.actDefault[i] == ParseTables.ERROR ? "" : " default=" + tables.actDefault[i];
+            System.out.println("State " + i + " -> " + tables.actionRow(i) + def);
         }
         System.out.println("GOTO table:");
-        for (int i=0;i<goTo.size();i++) {
-            System.out.println("State " + i + " -> " + goTo.get(i));
+        for (int i=0;i<tables.stateCount();i++) {
+            System.out.println("State " + i + " -> " + tables.gotoRow(i));
         }
     }
 
@@ -226,250 +101,456 @@ public class LR1Parser {
         public boolean success;
         public List<String> code;
         public String message;
+        public List<String> errors = List.of();     // 全部词法和语法错误，按出现顺序
+        public TACGenerator tac;                    // 成功时生成的三地址码，code 是它的文本视图
         public ParseResult(boolean s, List<String> c, String m) { success=s; code=c; message=m; }
-    }
 
-    // 将词法分析器得到的结果转换成适合语法分析的形式
-    private String tokToGramTerminal(Lexer.Token t) {
-        if (t.type == Lexer.TokenType.IDENTIFIER) return "id";
-        if (t.type == Lexer.TokenType.INT_CONST || t.type == Lexer.TokenType.FLOAT_CONST) return "num";
-        if (t.type == Lexer.TokenType.OPERATOR) {
-            return t.lexeme;
+        ParseResult(List<String> errors) {
+            this(false, null, String.join("\n", errors));
+            this.errors = errors;
         }
-        if (t.type == Lexer.TokenType.DELIMITER) {
-            return t.lexeme;
+    }
+
+    // 一次分析的可变状态: 状态栈、语义值栈、三地址码生成器(含临时变量和标号计数)
+    // 三个栈是平行的数组，下标 0..top 有效: states 是状态，values 是归约得到的语义值，texts 是移进的单词
+    // 移进只记下单词文本，不建 SemInfo；归约时语义动作按偏移直接读栈中的位置
+    static final class Session {
+        int[] states = new int[64];
+        SemInfo[] values = new SemInfo[64];
+        String[] texts = new String[64];
+        int top = -1;
+        final TACGenerator tac = new TACGenerator();
+
+        void push(int state, SemInfo value, String text) {
+            if (++top == states.length) {
+                states = Arrays.copyOf(states, top * 2);
+                values = Arrays.copyOf(values, top * 2);
+                texts = Arrays.copyOf(texts, top * 2);
+            }
+            states[top] = state;
+            values[top] = value;
+            texts[top] = text;
         }
-        if (t.type == Lexer.TokenType.EOF) return "$";
-        if (t.type == Lexer.TokenType.KEYWORD) return t.lexeme;
-        if (t.type == Lexer.TokenType.ERROR) return "err";
-        return t.lexeme;
     }
 
-    static class StackElem {
-        public String sym;      // 符号栈
-        public SemInfo val;      // 语义栈
-        public StackElem(String s, SemInfo v){ sym=s; val=v; }
-        public String toString(){ return sym + ":" + val; }
+    static final int VERBOSE_TRACE = 1 << 16;              // verbose 时保留最近多少步的记录
+    private static final int QUIET_SHIFTS = 3;             // 恢复之后要正常移进这么多个单词才报告新的语法错误，避免连锁报错
+
+    // 一次分析的计数，和 Session 分开: Session 不传出分析循环所在的方法，逃逸分析可以把它拆成局部变量
+    // 这几个计数一直在做(只是几次自增)，供 JFR 事件使用；计时和按状态/产生式的统计只在打开 Metrics 时做
+    static final class Stats {
+        int tokens, shifts, reductions, maxDepth;
+        final Metrics.Recorder metrics = Metrics.recorder();
+        long readNanos;                                     // 读单词花的时间，从分析时间中扣除
     }
 
     static class SemInfo {
-        String place;           // 表示这个表达式或变量的地址
-        List<String> code;      // 保存该表达式或语句生成的三地址码
-
-        SemInfo(String p) {
-            this.place = p;
-            this.code = new ArrayList<>();
+        String text;            // 移进的单词
+        int place = NONE;       // 表示这个表达式或变量的地址(操作数编号)
+        TACGenerator.Op rel;    // 条件表达式: place rel place2
+        int place2 = NONE;
+        Code code;              // 保存该表达式或语句生成的三地址码
+
+        SemInfo(String text) {
+            this.text = text;
+            this.code = Code.EMPTY;
         }
 
-        SemInfo(String p, List<String> c) {
-            this.place = p;
-            this.code = c != null ? c : new ArrayList<>();
+        SemInfo(int place, Code c) {
+            this.place = place;
+            this.code = c != null ? c : Code.EMPTY;
         }
 
         @Override
-        public String toString() { return place+"code:"+code.toString(); }
+        public String toString() { return (text != null ? text : place) + " code:" + code.size; }
 
     }
 
 
+    // 编译一段源程序
+    public ParseResult compile(String source) {
+        return parseAndGenerate(new Lexer(source, terminalIds()), false);
+    }
+
+    // 在 commonPool 上并行编译一批源程序，结果与输入一一对应
+    public List<ParseResult> compileAll(List<String> sources) {
+        return compileAll(sources, ForkJoinPool.commonPool());
+    }
+
+    public List<ParseResult> compileAll(List<String> sources, ForkJoinPool pool) {
+        Map<String, Integer> ids = terminalIds();       // 先在当前线程构造好分析表
+        ParseResult[] results = new ParseResult[sources.size()];
+        pool.invoke(new CompileTask(sources, ids, results, 0, results.length));
+        return Arrays.asList(results);
+    }
+
+    // 按下标区间二分，区间足够小时在当前工作线程里依次编译
+    // 任务不会被序列化(ForkJoinTask 实现了 Serializable，字段都不可序列化)
+    @SuppressWarnings("serial")
+    private class CompileTask extends RecursiveAction {
+        static final int LEAF = 4;
+
+        final List<String> sources;
+        final Map<String, Integer> ids;
+        final ParseResult[] results;
+        final int from, to;
+
+        CompileTask(List<String> sources, Map<String, Integer> ids, ParseResult[] results, int from, int to) {
+            this.sources = sources;
+            this.ids = ids;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF) {
+                for (int i = from; i < to; i++) {
+                    results[i] = parseAndGenerate(new Lexer(sources.get(i), ids), false);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new CompileTask(sources, ids, results, from, mid),
+                    new CompileTask(sources, ids, results, mid, to));
+        }
+    }
+
     // 分析并生成中间代码
     public ParseResult parseAndGenerate(List<Lexer.Token> tokens, boolean verbose) {
-        if (states==null) buildStatesAndTables();
+        Iterator<Lexer.Token> it = tokens.iterator();
+        return parseAndGenerate(new TokenStream() {
+            Lexer.Token cur;
+
+            public int advance() {
+                // 单词表末尾没有 EOF 时补一个
+                cur = it.hasNext() ? it.next() : new Lexer.Token(Lexer.TokenType.EOF, "$", -1, -1);
+                return cur.term;
+            }
+
+            public Lexer.TokenType type() { return cur.type; }
 
+            public String lexeme() { return cur.lexeme; }
+
+            public int line() { return cur.line; }
+
+            public int col() { return cur.col; }
+        }, verbose);
+    }
 
-        List<Lexer.Token> toks = new ArrayList<>(tokens);
-        if (toks.isEmpty() || toks.get(toks.size()-1).type != Lexer.TokenType.EOF) {
-            toks.add(new Lexer.Token(Lexer.TokenType.EOF, "$", -1, -1));
+    // 从单词流中逐个读取单词进行分析，不需要先得到完整的单词表
+    // verbose 时把分析过程还原成文本放在 message 前面
+    public ParseResult parseAndGenerate(TokenStream in, boolean verbose) {
+        if (!verbose) return parseAndGenerate(in, (ParseTrace) null);
+        ParseTrace trace = ParseTrace.inMemory(VERBOSE_TRACE);
+        ParseResult r = parseAndGenerate(in, trace);
+        r.message = trace.render(tables()) + r.message;
+        return r;
+    }
+
+    // 分析过程记录到 trace 中(为 null 时不记录)
+    public ParseResult parseAndGenerate(TokenStream in, ParseTrace trace) {
+        ParseTables tables = tables();
+        Stats stats = new Stats();
+        Metrics.Recorder m = stats.metrics;
+        Events.Parse e = new Events.Parse();
+        e.begin();
+        long t0 = m != null ? System.nanoTime() : 0;
+
+        ParseResult r = parse(tables, in, trace, stats);
+
+        if (m != null) {
+            long codegen = m.phaseNanos[Metrics.Phase.CODEGEN.ordinal()];
+            m.phaseNanos[Metrics.Phase.PARSE.ordinal()] += System.nanoTime() - t0 - stats.readNanos - codegen;
+            m.flush();
+            if (in instanceof Lexer) ((Lexer) in).flushMetrics();
+        }
+        if (e.shouldCommit()) {
+            e.success = r.success;
+            e.tokens = stats.tokens;
+            e.shifts = stats.shifts;
+            e.reductions = stats.reductions;
+            e.maxDepth = stats.maxDepth;
+            e.instructions = r.code != null ? r.code.size() : 0;
+            e.commit();
         }
-        int ip = 0;
-        Stack<Integer> stateStack = new Stack<>();  // 状态栈
-        Stack<StackElem> symStack = new Stack<>();  // 分析栈
-        stateStack.push(0);
+        return r;
+    }
+
+    // 读下一个单词，打开统计时计时
+    private static int next(ParseTables tables, TokenStream in, Stats stats) {
+        stats.tokens++;
+        if (stats.metrics == null) return terminalOf(tables, in, in.advance());
+        long t0 = System.nanoTime();
+        int a = terminalOf(tables, in, in.advance());
+        stats.readNanos += System.nanoTime() - t0;
+        return a;
+    }
 
-        StringBuilder parseTrace = new StringBuilder();
+    private ParseResult parse(ParseTables tables, TokenStream in, ParseTrace trace, Stats stats) {
+        Session session = new Session();
+        Metrics.Recorder m = stats.metrics;
+        List<String> errors = new ArrayList<>();
+        int quiet = 0;                                      // 还要移进几个单词才重新报告语法错误
+        int held = -1;                                      // 补了一个单词时，被推后的真实单词
 
+        int a = next(tables, in, stats);
+        session.push(0, null, null);
 
         while (true) {
-            int s = stateStack.peek();
-            Lexer.Token cur = toks.get(ip);
-            String a = tokToGramTerminal(cur);
-            Integer act = action.get(s).get(a);
-            if (verbose) {
-                parseTrace.append(String.format("State=%d, 读头下的符号=%s, action=%s\n", s, cur, act));
-            }
-            // System.out.println(parseTrace.toString());
-            if (act == null) {
-                // 语法错误
-                String msg = "Syntax error at " + cur.line + ":" + cur.col + " near '" + cur.lexeme + "'";
-                return new ParseResult(false, null, parseTrace.toString() + msg);
+            int s = session.states[session.top];
+            int act = tables.action(s, a);
+            int depth = session.top + 1;
+            if (depth > stats.maxDepth) stats.maxDepth = depth;
+            if (m != null) m.step(s, depth);
+            if (trace != null) trace.step(stats.tokens - 1, s, a, act, in);
+            if (act == ParseTables.ERROR) {
+                if (in.type() == Lexer.TokenType.ERROR && held < 0) {
+                    // 非法字符: 报告之后直接跳过
+                    errors.add(lexicalError(in));
+                    a = next(tables, in, stats);
+                    continue;
+                }
+                // 语法错误: 记下之后恢复，继续分析后面的部分
+                String msg = syntaxError(in);
+                boolean report = quiet == 0;
+                quiet = QUIET_SHIFTS;
+                int[] st = session.states;
+                int semi = tables.terminalId(";"), rbrace = tables.terminalId("}");
+                int eof = tables.terminalId("$");
+
+                // 短语级: 补一个漏掉的 ';' ')' '}'
+                int ins = ErrorRecovery.insertion(tables, st, depth, a,
+                        new int[]{semi, tables.terminalId(")"), rbrace});
+                if (ins >= 0) {
+                    if (report) errors.add(msg + ", missing '" + tables.terminalName(ins) + "'");
+                    held = a;
+                    a = ins;
+                    continue;
+                }
+                if (report) errors.add(msg);
+
+                // 多出来的单词: 去掉它之后下一个单词能接上就只跳过这一个
+                if (a != semi && a != rbrace && a != eof) {
+                    a = skip(tables, in, stats, errors);
+                    if (ErrorRecovery.accepts(tables, st, depth, a)) continue;
+                }
+
+                // 紧急恢复: 跳到 ';' 或 '}'，再用栈中状态的 goto 把出错的部分当作一个非终结符
+                long r;
+                while (true) {
+                    if (a == semi) a = skip(tables, in, stats, errors);     // 从 ';' 后面的单词开始恢复
+                    else if (a != rbrace && a != eof) {
+                        a = skip(tables, in, stats, errors);
+                        continue;
+                    }
+                    r = ErrorRecovery.resume(tables, st, depth, a);
+                    if (r >= 0) break;
+                    if (a == eof) return new ParseResult(errors);
+                    if (a == rbrace) a = skip(tables, in, stats, errors);
+                }
+                int keep = (int) (r >>> 32), nt = (int) r;
+                session.top = keep - 1;
+                // 出错之后不再生成代码，恢复出的非终结符没有语义值
+                session.push(tables.goTo(session.states[session.top], nt), null, null);
             } else if (act == 0) {
                 // 分析成功acc
-                if (verbose) parseTrace.append("Accept.\n");
-                if (!symStack.isEmpty()) {
-                    SemInfo result = symStack.peek().val;
-                    for (String line : result.code) {
-                        tacGenerator.emit(line);
-                    }
-                    return new ParseResult(true,tacGenerator.getCode(), parseTrace.toString()+"OK");
+                if (!errors.isEmpty()) return new ParseResult(errors);
+                if (session.top > 0) {
+                    // 整个程序的代码只在这里展开一次
+                    long t0 = m != null ? System.nanoTime() : 0;
+                    session.tac.emit(session.values[session.top].code);
+                    if (m != null) m.phaseNanos[Metrics.Phase.CODEGEN.ordinal()] += System.nanoTime() - t0;
+                    ParseResult r = new ParseResult(true, session.tac.getCode(), "OK");
+                    r.tac = session.tac;
+                    return r;
                 }
-                return new ParseResult(true, new ArrayList<>(), parseTrace.toString()+"OK(no code)");
+                return new ParseResult(true, new ArrayList<>(), "OK(no code)");
             } else if (act > 0) {
-                // 移进
-                String sym = a;
-                SemInfo val = null;
-                if (cur.type == Lexer.TokenType.IDENTIFIER) val = new SemInfo(cur.lexeme);
-                else if (cur.type == Lexer.TokenType.INT_CONST || cur.type == Lexer.TokenType.FLOAT_CONST) val = new SemInfo(cur.lexeme);
-                else val = new SemInfo(cur.lexeme);
-                // System.out.println(sym+val);
-                // 压栈
-                symStack.push(new StackElem(sym, val));
-                stateStack.push(act);
-                ip++;
+                // 移进: 补上的单词用终结符名作为文本
+                session.push(act, null, held >= 0 ? tables.terminalName(a) : in.lexeme());
+                stats.shifts++;
+                if (m != null) m.shifts++;
+                if (quiet > 0) quiet--;
+                if (held >= 0) {
+                    // 补上的单词移进之后回到真实单词
+                    a = held;
+                    held = -1;
+                } else {
+                    a = next(tables, in, stats);
+                }
             } else {
-                // 归约
+                // 归约: 右部的语义值和单词在栈中 top-rhsLen+1..top，弹栈只移动 top
                 int prodId = -act;
-                Grammar.Prod p = G.prods.get(prodId);
-                int rhsLen = p.right.size();
-                // System.out.println("rhsLen="+rhsLen);
-                // 弹栈
-                List<StackElem> popped = new ArrayList<>();
-                for (int i=0;i<rhsLen;i++) {
-                    if (!symStack.isEmpty()) popped.add(0, symStack.pop());
-                    if (!stateStack.isEmpty()) stateStack.pop();
+                int sp = session.top - tables.prodLen[prodId] + 1;
+                stats.reductions++;
+                if (m != null) m.reduce(prodId);
+                SemInfo newInfo;
+                if (!errors.isEmpty()) {
+                    // 出错之后只检查语法，不再生成代码
+                    newInfo = null;
+                } else if (m == null) {
+                    newInfo = generateTAC(session.tac, prodId, session.values, session.texts, sp);
+                } else {
+                    long t0 = System.nanoTime();
+                    newInfo = generateTAC(session.tac, prodId, session.values, session.texts, sp);
+                    m.phaseNanos[Metrics.Phase.CODEGEN.ordinal()] += System.nanoTime() - t0;
                 }
-                // System.out.println(popped);
-                SemInfo newInfo = null;
-                newInfo = generateTAC(prodId,popped);
-
-                symStack.push(new StackElem(p.left, newInfo));
-                StackElem peek = symStack.peek();
-                // System.out.println("状态栈栈顶元素："+peek.sym+peek.val);
-                int s2 = stateStack.peek();
-                Integer g = goTo.get(s2).get(p.left);
-                if (g == null) {
-                    String msg = "Parsing error: no goto from state " + s2 + " on " + p.left;
-                    return new ParseResult(false, null, msg);
+                // 弹出部分的引用留在数组里，之后的压栈会覆盖；右部为空时 sp == top + 1
+                session.top = sp - 1;
+
+                int s2 = session.states[session.top];
+                int g = tables.goTo(s2, tables.prodLhs[prodId]);
+                if (g == ParseTables.ERROR) {
+                    errors.add("Parsing error: no goto from state " + s2 + " on " + tables.nonterminals[tables.prodLhs[prodId]]);
+                    return new ParseResult(errors);
                 }
-                stateStack.push(g);
+                session.push(g, newInfo, null);
             }
         }
     }
 
 
-    private SemInfo generateTAC(int prodId, List<StackElem> popped) {
+    // 错误恢复时跳过当前单词，跳过的单词中的非法字符同样报告
+    private static int skip(ParseTables tables, TokenStream in, Stats stats, List<String> errors) {
+        int a = next(tables, in, stats);
+        if (in.type() == Lexer.TokenType.ERROR) errors.add(lexicalError(in));
+        return a;
+    }
+
+    static String lexicalError(TokenStream in) {
+        return "Lexical error at " + in.line() + ":" + in.col() + ": illegal character";
+    }
+
+    static String syntaxError(TokenStream in) {
+        return "Syntax error at " + in.line() + ":" + in.col() + " near '" + in.lexeme() + "'";
+    }
+
+    // 词法分析时没有标注编号的单词在这里补上，每个单词只查一次
+    static int terminalOf(ParseTables tables, TokenStream in, int term) {
+        return term >= 0 ? term : tables.terminalId(Lexer.grammarTerminal(in.type(), in.lexeme()));
+    }
+
+    // 右部第 k 个符号(从 0 开始)的语义值是 v[sp + k]，终结符的单词是 text[sp + k]
+    static SemInfo generateTAC(TACGenerator g, int prodId, SemInfo[] v, String[] text, int sp) {
+        Events.Reduce e = new Events.Reduce();
+        e.begin();
+        int before = g.pendingSize();
+        SemInfo info = translate(g, prodId, v, text, sp);
+        if (e.shouldCommit()) {
+            e.production = prodId;
+            e.instructions = g.pendingSize() - before;
+            e.commit();
+        }
+        return info;
+    }
+
+    private static SemInfo translate(TACGenerator g, int prodId, SemInfo[] v, String[] text, int sp) {
         SemInfo newInfo;
 
         switch (prodId) {
             case 1: {
                 // R → for ( A C ; A1 ) {B}
-                SemInfo init = popped.get(2).val;   // 初始化语句 S
-                SemInfo cond = popped.get(3).val;   // 条件表达式 C
-                SemInfo step = popped.get(5).val;   // 步进语句 S
-                SemInfo body = popped.get(8).val;   // 循环体 B
-
-                String Lbegin = tacGenerator.newLabel();
-                String Lend   = tacGenerator.newLabel();
-                List<String> code = new ArrayList<>();
+                SemInfo init = v[sp + 2];   // 初始化语句 S
+                SemInfo cond = v[sp + 3];   // 条件表达式 C
+                SemInfo step = v[sp + 5];   // 步进语句 S
+                SemInfo body = v[sp + 8];   // 循环体 B
+
+                int Lbegin = g.newLabel();
+                int Lend   = g.newLabel();
+                Code code = Code.EMPTY;
                 // A
-                if (init != null) code.addAll(init.code);
+                if (init != null) code = code.then(init.code);
                 // Lbegin
-                code.add(Lbegin + ":");
+                code = code.then(g.quad(TACGenerator.Op.LABEL, NONE, NONE, Lbegin));
                 // C
-                if (cond != null) code.addAll(cond.code);
-                code.add("ifFalse " + cond.place + " goto " + Lend);
+                if (cond != null) code = code.then(cond.code);
+                code = code.then(g.quad(cond.rel, cond.place, cond.place2, Lend));
                 // B
-                if (body != null) code.addAll(body.code);
+                if (body != null) code = code.then(body.code);
                 // A1
-                if (step != null) code.addAll(step.code);
+                if (step != null) code = code.then(step.code);
                 // 回跳
-                code.add("goto " + Lbegin);
+                code = code.then(g.quad(TACGenerator.Op.GOTO, NONE, NONE, Lbegin));
                 // Lend
-                code.add(Lend + ":");
-                newInfo = new SemInfo(null, code);
+                code = code.then(g.quad(TACGenerator.Op.LABEL, NONE, NONE, Lend));
+                newInfo = new SemInfo(NONE, code);
                 break;
             }
 
             case 2: case 3: {
                 // A → id = E | A1 → id = E;
-                String idName = popped.get(0).val.place;
-                SemInfo e = popped.get(2).val;
+                int id = g.var(text[sp]);
+                SemInfo e = v[sp + 2];
 
-                List<String> code = new ArrayList<>(e.code);
-                code.add(idName + " = " + e.place);
+                Code code = e.code.then(g.quad(TACGenerator.Op.ASSIGN, e.place, NONE, id));
 
-                newInfo = new SemInfo(idName, code);
+                newInfo = new SemInfo(id, code);
                 break;
             }
 
             case 4: case 5: case 6:
             case 7: case 8: case 9: {
-                // 条件表达式
-                SemInfo e1 = popped.get(0).val;
-                String op = popped.get(1).val.place;
-                SemInfo e2 = popped.get(2).val;
-
-                List<String> code = new ArrayList<>();
-                code.addAll(e1.code);
-                code.addAll(e2.code);
-
-                String cond = e1.place + " " + op + " " + e2.place;
-                newInfo = new SemInfo(cond, code);
+                // 条件表达式，跳转指令由使用它的语句生成
+                SemInfo e1 = v[sp];
+                TACGenerator.Op rel = TACGenerator.Op.ifFalse(text[sp + 1]);
+                SemInfo e2 = v[sp + 2];
+
+                newInfo = new SemInfo(e1.place, e1.code.then(e2.code));
+                newInfo.rel = rel;
+                newInfo.place2 = e2.place;
                 break;
             }
 
             case 10: {
                 // S → A
-                newInfo = popped.get(0).val;
+                newInfo = v[sp];
                 break;
             }
 
             case 11: {
                 // S → I
-                newInfo = popped.get(0).val;
+                newInfo = v[sp];
                 break;
             }
 
             case 12: {
                 // I → if ( C ) { S } else { S }
-                SemInfo cond = popped.get(2).val;
-                SemInfo thenStmt = popped.get(5).val;
-                SemInfo elseStmt = popped.get(9).val;
+                SemInfo cond = v[sp + 2];
+                SemInfo thenStmt = v[sp + 5];
+                SemInfo elseStmt = v[sp + 9];
 
-                String Lelse = tacGenerator.newLabel();
-                String Lend = tacGenerator.newLabel();
+                int Lelse = g.newLabel();
+                int Lend = g.newLabel();
 
-                List<String> code = new ArrayList<>();
                 // 条件判断
-                code.add("ifFalse " + cond.place + " goto " + Lelse);
+                Code code = cond.code.then(g.quad(cond.rel, cond.place, cond.place2, Lelse));
 
                 // then 分支
-                code.addAll(thenStmt.code);
+                code = code.then(thenStmt.code);
 
-                code.add("goto " + Lend);
+                code = code.then(g.quad(TACGenerator.Op.GOTO, NONE, NONE, Lend));
 
                 // else 分支
-                code.add(Lelse + ":");
-                code.addAll(elseStmt.code);
+                code = code.then(g.quad(TACGenerator.Op.LABEL, NONE, NONE, Lelse));
+                code = code.then(elseStmt.code);
 
                 // 结束标签
-                code.add(Lend + ":");
-                String temp = tacGenerator.newTemp();
-                newInfo = new SemInfo(temp,code);
+                code = code.then(g.quad(TACGenerator.Op.LABEL, NONE, NONE, Lend));
+                newInfo = new SemInfo(NONE, code);
                 break;
             }
 
-            case 13: case 14: {
-                // E → E + T | E → E - T
-                SemInfo e1 = popped.get(0).val;
-                String op = popped.get(1).val.place;
-                SemInfo t = popped.get(2).val;
-
-                List<String> code = new ArrayList<>();
-                code.addAll(e1.code);
-                code.addAll(t.code);
+            case 13: case 14:
+            case 16: case 17: {
+                // E → E + T | E → E - T | T → T * F | T → T / F
+                SemInfo e1 = v[sp];
+                TACGenerator.Op op = TACGenerator.Op.arithmetic(text[sp + 1]);
+                SemInfo e2 = v[sp + 2];
 
-                String temp = tacGenerator.newTemp();
-                code.add(temp + " = " + e1.place + " " + op + " " + t.place);
+                int temp = g.newTemp();
+                Code code = e1.code.then(e2.code).then(g.quad(op, e1.place, e2.place, temp));
 
                 newInfo = new SemInfo(temp, code);
                 break;
@@ -477,70 +558,57 @@ public class LR1Parser {
 
             case 15: {
                 // E → T
-                newInfo = popped.get(0).val;
+                newInfo = v[sp];
                 break;
             }
 
-            case 16: case 17: {
-                // T → T * F | T → T / F
-                SemInfo t1 = popped.get(0).val;
-                String op = popped.get(1).val.place;
-                SemInfo f = popped.get(2).val;
-
-                List<String> code = new ArrayList<>();
-                code.addAll(t1.code);
-                code.addAll(f.code);
-
-                String temp = tacGenerator.newTemp();
-                code.add(temp + " = " + t1.place + " " + op + " " + f.place);
-
-                newInfo = new SemInfo(temp, code);
+            case 18:{
+                // T → F
+                newInfo = v[sp];
                 break;
             }
 
-            case 18:{
-                // T → F
-                newInfo = popped.get(0).val;
+            case 19: {
+                // F → id
+                newInfo = new SemInfo(g.var(text[sp]), Code.EMPTY);
                 break;
             }
 
-            case 19: case 20: {
-                // F → id | num
-                newInfo = popped.get(0).val;
+            case 20: {
+                // F → num
+                newInfo = new SemInfo(g.constant(text[sp]), Code.EMPTY);
                 break;
             }
 
             case 21:{
                 // F → (E)
-                newInfo = popped.get(1).val;
+                newInfo = v[sp + 1];
                 break;
             }
 
             case 22:{
                 // B → B S
-                // System.out.println(popped);
-                SemInfo b = popped.get(0).val;
-                SemInfo s = popped.get(1).val;
+                SemInfo b = v[sp];
+                SemInfo s = v[sp + 1];
 
-                List<String> code = new ArrayList<>();
-                code.addAll(b.code);
-                code.addAll(s.code);
+                // 只新建一个拼接结点，不再复制已经累积的整段代码
+                Code code = b.code.then(s.code);
 
-                newInfo = new SemInfo(null, code);
+                newInfo = new SemInfo(NONE, code);
                 break;
             }
             case 23:{
                 // B → S
-                newInfo = popped.get(0).val;
+                newInfo = v[sp];
                 break;
             }
             case 24:{
                 // S → R
-                newInfo = popped.get(0).val;
+                newInfo = v[sp];
                 break;
             }
             default:
-                newInfo = new SemInfo(null);
+                newInfo = new SemInfo(NONE, Code.EMPTY);
         }
 
         return newInfo;
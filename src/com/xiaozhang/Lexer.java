@@ -1,127 +1,340 @@
 package com.xiaozhang;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
-public class Lexer {
+public class Lexer implements TokenStream {
 
-    private static final Set<String> KEYWORDS = Set.of(
+    // 关键字在符号表中预先驻留，编号小于 symbols.reserved() 的标识符就是关键字
+    private static final List<String> KEYWORDS = List.of(
             "int","float","char","if","else","while","for","return",
             "void","double","main","do","include"
     );
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // 滑动缓冲区: buf[0..limit) 是已读入的字符，pos 为当前位置，mark 为当前单词的开始
+    // 读到缓冲区末尾时把 mark 之前的字符丢掉再从 source 补充，跨越缓冲区边界的单词因此保持完整
+    private static final int BUFFER_SIZE = 8192;
+    private char[] buf;
+    private int pos, limit, mark;
+    private int base;                   // buf[0] 在整个输入中的偏移
+    private final Source source;        // 为 null 表示全部内容已在 buf 中
+
+    private static final DFA dfa = new DFA();
+    private final SymbolTable symbols = new SymbolTable(KEYWORDS);
+    private final LineIndex lines = new LineIndex();
+
+    // 当前单词
+    private int tokType, tokTerm, tokStart, tokLen, tokSym;
+    private int eofPad;                 // 输入末尾的错误字符也占一列，EOF 的列号要后移
+
+    private final Metrics.Recorder metrics = Metrics.recorder();   // 没有打开统计时为 null
+
+    // 向量化快速路径，默认关闭，用 -Dblyl.simd=true 或 Lexer.useVectorScan(true) 打开
+    // 需要运行时加 --add-modules jdk.incubator.vector，没有这个模块时始终用逐个字符的 DFA
+    private static final boolean VECTOR_AVAILABLE = vectorModulePresent();
+    private static volatile boolean vectorScan = VECTOR_AVAILABLE && Boolean.getBoolean("blyl.simd");
+    private final boolean vector = vectorScan;                     // 创建时确定，之后不变
+    // 一次向量比较的开销大约相当于逐个判断五六个字符，一段字符的第 VECTOR_MIN_RUN 个也属于这一段时才用向量比较
+    private static final int VECTOR_MIN_RUN = 8;
+
+    // 终结符编号，为 null 时由语法分析器补充
+    private final Map<String, Integer> terminalIds;
+    private int idTerm = -1, numTerm = -1, eofTerm = -1, errTerm = -1;
+    private int[] symTerm = new int[0];         // 符号编号 -> 终结符编号的缓存，-1 表示还没查过
 
-    private static final Set<Character> DELIMS = Set.of(
-            '(',')','{','}',';',',','[',']'
-    );
+    public Lexer(String code) {
+        this(code, null);
+    }
 
-    private static final Set<Character> OPS = Set.of(
-            '+','-','*','/','=','!','|','&','%','>','<'
-    );
-    private final String code;
-    private int index = 0;
-    private int line = 1, col = 1;
+    public Lexer(String code, Map<String, Integer> terminalIds) {
+        this(null, terminalIds, code == null ? new char[0] : code.toCharArray());
+    }
 
-    private final DFA dfa = new DFA();
+    public Lexer(Reader in, Map<String, Integer> terminalIds) {
+        this(readerSource(in), terminalIds);
+    }
 
-    public Lexer(String code) {
-        this.code = code == null ? "" : code;
+    public Lexer(CharBuffer in, Map<String, Integer> terminalIds) {
+        this(charBufferSource(in), terminalIds);
     }
 
-    public Token nextToken() {
-        // 去除空格
-        while (index < code.length() &&
-                Character.isWhitespace(code.charAt(index))) {
-            consumeWhitespace();
+    private Lexer(Source source, Map<String, Integer> terminalIds) {
+        this(source, terminalIds, new char[BUFFER_SIZE]);
+        this.limit = 0;
+    }
+
+    private Lexer(Source source, Map<String, Integer> terminalIds, char[] buf) {
+        this.source = source;
+        this.buf = buf;
+        this.limit = buf.length;
+        this.terminalIds = terminalIds;
+        if (terminalIds != null) {
+            idTerm = terminalId("id");
+            numTerm = terminalId("num");
+            eofTerm = terminalId("$");
+            errTerm = terminalId("err");
+        }
+    }
+
+    // 之后创建的词法分析器是否使用向量化快速路径，返回实际是否打开(没有 jdk.incubator.vector 时为 false)
+    public static boolean useVectorScan(boolean on) {
+        vectorScan = on && VECTOR_AVAILABLE;
+        return vectorScan;
+    }
+
+    static boolean usingVectorScan() { return vectorScan; }
+
+    private static boolean vectorModulePresent() {
+        try {
+            Class.forName("jdk.incubator.vector.ShortVector");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    // 把 UTF-8 文件映射到内存，边解码边分析，不把整个文件读成字符串
+    public static Lexer mapFile(Path file, Map<String, Integer> terminalIds) throws IOException {
+        MappedByteBuffer bytes;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            bytes = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        return new Lexer(decoderSource(bytes), terminalIds);
+    }
+
+    // 字符来源，返回读入的字符数，没有更多字符时返回 -1
+    private interface Source {
+        int read(char[] dst, int off, int len) throws IOException;
+    }
+
+    private static Source readerSource(Reader in) {
+        return in::read;
+    }
+
+    private static Source charBufferSource(CharBuffer in) {
+        return (dst, off, len) -> {
+            if (!in.hasRemaining()) return -1;
+            int n = Math.min(len, in.remaining());
+            in.get(dst, off, n);
+            return n;
+        };
+    }
+
+    private static Source decoderSource(ByteBuffer in) {
+        CharsetDecoder dec = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return new Source() {
+            boolean flushed;
+
+            public int read(char[] dst, int off, int len) {
+                if (flushed) return -1;
+                CharBuffer out = CharBuffer.wrap(dst, off, len);
+                dec.decode(in, out, true);
+                if (!in.hasRemaining() && dec.flush(out).isUnderflow()) flushed = true;
+                int n = out.position() - off;
+                return n == 0 && flushed ? -1 : n;
+            }
+        };
+    }
+
+    // 缓冲区读完时补充字符，保留当前单词 buf[mark..limit)；没有更多字符时返回 false
+    private boolean fill() {
+        if (source == null) return false;
+        if (mark > 0) {
+            System.arraycopy(buf, mark, buf, 0, limit - mark);
+            base += mark;
+            pos -= mark;
+            limit -= mark;
+            mark = 0;
         }
+        // 单词比缓冲区还长时扩容；至少留两个位置，保证代理对能完整解码
+        if (buf.length - limit < 2) buf = Arrays.copyOf(buf, buf.length * 2);
+        try {
+            int n;
+            do {
+                n = source.read(buf, limit, buf.length - limit);
+            } while (n == 0);
+            if (n < 0) return false;
+            limit += n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 识别下一个单词，结果放在 tok* 字段中，返回终结符编号(没有编号表时为 -1)
+    public int advance() {
+        if (metrics == null) return scan();
+        long t0 = System.nanoTime();
+        int term = scan();
+        metrics.token(tokType, System.nanoTime() - t0);
+        if (tokType == TokenType.EOF.ordinal()) metrics.flush();
+        return term;
+    }
 
-        if (index >= code.length())
-            return new Token(TokenType.EOF, "$", line, col);
+    // 没有读到 EOF 就不再使用时(如语法错误)，把统计合并到全局
+    void flushMetrics() {
+        if (metrics != null) metrics.flush();
+    }
 
-        int startLine = line, startCol = col;
-        int startIdx = index;
+    // 除了第一次见到的符号，整个过程不分配对象
+    private int scan() {
+        final byte[] cc = dfa.charClass;
+        final int[][] trans = dfa.trans;
+        final boolean[] accept = dfa.accept;
+        final byte[] run = dfa.run;
+
+        // 去除空格，顺便记下每一行的开始位置
+        boolean runTried = !vector;         // 向量化只在一段空白的开头试一次
+        while (true) {
+            mark = pos;
+            if (pos >= limit && !fill()) break;
+            char c = buf[pos];
+            int cls = c < 128 ? cc[c] : DFA.classOf(c);
+            if (cls != DFA.CC_SPACE) break;
+            if (!runTried) {
+                runTried = true;
+                int far = pos + VECTOR_MIN_RUN - 1;
+                if (far < limit && buf[far] < 128 && cc[buf[far]] == DFA.CC_SPACE) {
+                    int p = VectorScan.skipSpace(buf, pos, limit, lines, base);
+                    if (p > pos) {
+                        pos = p;
+                        continue;
+                    }
+                }
+            }
+            pos++;
+            if (c == '\n') lines.addLine(base + pos);
+        }
 
-        DFA.DFAState state = DFA.DFAState.START;
-        DFA.DFAState lastAccept = null;
-        int lastAcceptIdx = -1;
+        tokStart = base + pos;
+        if (pos >= limit) {
+            tokStart += eofPad;
+            return set(TokenType.EOF, 0, -1, eofTerm);
+        }
 
-        while (index < code.length()) {
-            char ch = code.charAt(index);
+        int state = dfa.start;
+        int lastAccept = DFA.NONE;
+        int acceptLen = -1;             // 最近一次接受时单词的长度
 
-            DFA.DFAState next = transition(state, ch);
-            if (next == null) break;
+        // 查表驱动: ASCII 字符直接查字符类表，其余字符走 DFA.classOf
+        while (pos < limit || fill()) {
+            char ch = buf[pos];
+            int next = trans[state][ch < 128 ? cc[ch] : DFA.classOf(ch)];
+            if (next == DFA.NONE) break;
 
+            boolean entered = next != state;
             state = next;
-            index++;
-            col++;
+            pos++;
+
+            if (vector && entered && run[state] != DFA.RUN_NONE) {
+                // 刚进入有自环的状态时，一段字母数字/数字一次跳过，之后的字符仍由 DFA 处理
+                int far = pos + VECTOR_MIN_RUN - 1;
+                if (far < limit && buf[far] < 128 && trans[state][cc[buf[far]]] == state) {
+                    pos = run[state] == DFA.RUN_WORD
+                            ? VectorScan.skipIdent(buf, pos, limit)
+                            : VectorScan.skipDigits(buf, pos, limit);
+                }
+            }
 
-            if (dfa.get(state).accept) {
+            if (accept[state]) {
                 lastAccept = state;
-                lastAcceptIdx = index;
+                acceptLen = pos - mark;
             }
         }
 
-        if (lastAccept == null) {
-            index++;
-            col++;
-            return new Token(TokenType.ERROR,
-                    "Illegal token", startLine, startCol);
+        if (lastAccept == DFA.NONE) {
+            if (pos < limit) pos++;
+            else eofPad = 1;
+            return set(TokenType.ERROR, base + pos - tokStart, -1, errTerm);
         }
 
-        String lexeme = code.substring(startIdx, lastAcceptIdx);
-        index = lastAcceptIdx;
-
-        TokenType type = dfa.get(lastAccept).tokenType;
+        pos = mark + acceptLen;
+        int sym = symbols.intern(buf, mark, acceptLen);
+        TokenType type = dfa.tokenType[lastAccept];
 
-        if (type == TokenType.IDENTIFIER && KEYWORDS.contains(lexeme))
+        if (type == TokenType.IDENTIFIER && sym < symbols.reserved())
             type = TokenType.KEYWORD;
 
-        return new Token(type, lexeme, startLine, startCol);
-    }
-
-    private DFA.DFAState transition(DFA.DFAState s, char c) {
-        switch (s) {
-            case START:
-                if (Character.isLetter(c) || c == '_') return DFA.DFAState.ID;
-                if (Character.isDigit(c)) return DFA.DFAState.INT;
-                if (c == '.') return DFA.DFAState.DOT;
-                if (c == '-') return DFA.DFAState.INT;
-                if (OPS.contains(c)) return DFA.DFAState.OP;
-                if (DELIMS.contains(c)) return DFA.DFAState.DELIM;
-                return null;
-
-            case ID:
-                if (Character.isLetterOrDigit(c) || c == '_')
-                    return DFA.DFAState.ID;
-                return null;
-
-            case INT:
-                if (Character.isDigit(c)) return DFA.DFAState.INT;
-                if (c == '.') return DFA.DFAState.FLOAT;
-                return null;
-
-            case DOT:
-                if (Character.isDigit(c)) return DFA.DFAState.FLOAT;
-                return null;
-
-            case FLOAT:
-                if (Character.isDigit(c)) return DFA.DFAState.FLOAT;
-                return null;
-
-            case OP:
-                if (OPS.contains(c))
-                    return DFA.DFAState.OP;
-                return null;
-
-            case DELIM:
-                return null;
+        int term;
+        if (type == TokenType.IDENTIFIER) term = idTerm;
+        else if (type == TokenType.INT_CONST || type == TokenType.FLOAT_CONST) term = numTerm;
+        else term = symbolTerm(sym);
+        return set(type, acceptLen, sym, term);
+    }
+
+    private int set(TokenType type, int len, int sym, int term) {
+        tokType = type.ordinal();
+        tokLen = len;
+        tokSym = sym;
+        tokTerm = term;
+        return term;
+    }
+
+    // 关键字、运算符、分隔符的终结符编号，每个符号只查一次编号表
+    private int symbolTerm(int sym) {
+        if (terminalIds == null) return -1;
+        if (sym >= symTerm.length) {
+            int old = symTerm.length;
+            symTerm = Arrays.copyOf(symTerm, Math.max(symbols.size(), old * 2));
+            Arrays.fill(symTerm, old, symTerm.length, -1);
         }
-        return null;
+        if (symTerm[sym] < 0) symTerm[sym] = terminalId(symbols.name(sym));
+        return symTerm[sym];
     }
 
-    private void consumeWhitespace() {
-        char c = code.charAt(index++);
-        if (c == '\n') {
-            line++;
-            col = 1;
-        } else col++;
+    // 文法中没有的终结符编号为 terminalIds.size()，与 ParseTables.unknownTerm 一致
+    private int terminalId(String name) {
+        Integer id = terminalIds.get(name);
+        return id == null ? terminalIds.size() : id;
+    }
+
+    public TokenType type() { return TYPES[tokType]; }
+
+    public String lexeme() { return lexemeOf(TYPES[tokType], tokSym, symbols); }
+
+    public int line() { return lines.line(tokStart); }
+
+    public int col() { return lines.col(tokStart); }
+
+    // 当前单词在输入中的偏移和长度
+    int tokenStart() { return tokStart; }
+
+    int tokenLength() { return tokLen; }
+
+    static String lexemeOf(TokenType type, int sym, SymbolTable symbols) {
+        if (type == TokenType.EOF) return "$";
+        if (type == TokenType.ERROR) return "Illegal token";
+        return symbols.name(sym);
+    }
+
+    // 识别下一个单词并包装成 Token 对象
+    public Token nextToken() {
+        Events.Token e = new Events.Token();
+        e.begin();
+        advance();
+        Token t = new Token(type(), lexeme(), line(), col());
+        t.term = tokTerm;
+        if (e.shouldCommit()) {
+            e.type = t.type.name();
+            e.lexeme = t.lexeme;
+            e.line = t.line;
+            e.col = t.col;
+            e.commit();
+        }
+        return t;
     }
 
     public List<Token> tokenize() {
@@ -134,6 +347,26 @@ public class Lexer {
         return list;
     }
 
+    // 把全部单词按列存入 TokenBuffer
+    public TokenBuffer tokenizeAll() {
+        TokenBuffer tb = new TokenBuffer(symbols, lines);
+        do {
+            advance();
+            tb.add(tokType, tokTerm, tokStart, tokLen, tokSym);
+        } while (tokType != TokenType.EOF.ordinal());
+        return tb;
+    }
+
+    // 将单词转换成文法中的终结符
+    public static String grammarTerminal(TokenType type, String lexeme) {
+        switch (type) {
+            case IDENTIFIER: return "id";
+            case INT_CONST: case FLOAT_CONST: return "num";
+            case EOF: return "$";
+            case ERROR: return "err";
+            default: return lexeme;
+        }
+    }
 
     public enum TokenType {
         KEYWORD, IDENTIFIER, INT_CONST, FLOAT_CONST,
@@ -144,6 +377,7 @@ public class Lexer {
         public TokenType type;
         public String lexeme;
         public int line, col;
+        public int term = -1;       // 终结符编号，-1 表示未标注
 
         public Token(TokenType t, String s, int l, int c) {
             type = t;
@@ -0,0 +1,38 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+
+// 每一行开始处的字符偏移，行号和列号只在需要时(如报错)由偏移量换算
+public class LineIndex {
+
+    private int[] starts = new int[64];
+    private int count = 1;          // 第 1 行从偏移 0 开始
+    private int hint;               // 上次查到的行，顺序查询时不用二分
+
+    void addLine(int start) {
+        if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+        starts[count++] = start;
+    }
+
+    // 偏移所在的行(从 0 开始)
+    private int lineIndex(int offset) {
+        int h = hint;
+        if (starts[h] <= offset && (h + 1 == count || offset < starts[h + 1])) return h;
+        int lo = 0, hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) lo = mid;
+            else hi = mid - 1;
+        }
+        hint = lo;
+        return lo;
+    }
+
+    public int line(int offset) {
+        return lineIndex(offset) + 1;
+    }
+
+    public int col(int offset) {
+        return offset - starts[lineIndex(offset)] + 1;
+    }
+}
@@ -1,10 +1,13 @@
 package com.xiaozhang;
 
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         String input1 = "for(i = 1;i <= 10;i = i + 1){ if(a<1){a = 2;if(b > 1){b = 23;} else{b = 30;}} else {a = 0;} }"; // if嵌套
 
         String input2 = "for(i = 1;i <= 10; i = i + 1){ for(j = 0 ;j < i;j = j + 1){a = j + 1;}}"; // 嵌套
@@ -12,22 +15,46 @@ public class Main {
         String input4E = "for(i = 1;i <= 10; i = i + 1){ if(b > 1){b = 23 else{b = 30;}}"; // 语法错误
 
 
+        // 构造文法和 LR(1) 解析器，分析表优先从缓存读取
+        Grammar G = new Grammar();
+        if (Boolean.getBoolean("blyl.report")) {
+            System.out.println("Table construction modes:\n" + LR1Builder.report(G));
+        }
+        LR1Builder.Mode mode = LR1Builder.Mode.valueOf(System.getProperty("blyl.mode", "LR1"));
+        LR1Parser parser = new LR1Parser(G, mode);
+        Path cache = Paths.get(System.getProperty("blyl.tableCache", "blyl-lr1.tables"));
+        boolean cached = parser.loadOrBuildTables(cache);
+        System.out.println(cached ? "Tables loaded from " + cache : "Tables built and cached to " + cache);
+
+        if (args.length > 0) {
+            // 分析文件：内存映射后边读边分析，不先生成单词表
+            // -Dblyl.trace=<文件> 时把最近 blyl.traceSize 步记录到文件，之后用 ParseTrace <文件> <源程序> 查看
+            String traceFile = System.getProperty("blyl.trace");
+            ParseTrace trace = traceFile == null ? null
+                    : ParseTrace.mapped(Paths.get(traceFile), Integer.getInteger("blyl.traceSize", 1 << 20));
+            LR1Parser.ParseResult res = parser.parseAndGenerate(
+                    Lexer.mapFile(Paths.get(args[0]), parser.terminalIds()), trace);
+            if (!res.success) System.out.println("Parse failed:\n" + res.message);
+            else {
+                optimize(res);
+                for (String line : res.code) System.out.println(line);
+                run(res);
+            }
+            printMetrics();
+            return;
+        }
+
         String input = input2;
         System.out.println("Input: " + input);
 
-        // 词法分析
-        Lexer lexer = new Lexer(input);
+        // 词法分析，单词直接带上终结符编号
+        Lexer lexer = new Lexer(input, parser.terminalIds());
         List<Lexer.Token> tokens = lexer.tokenize();
 
         System.out.println("Tokens:");
         for (Lexer.Token t : tokens) System.out.println(t + "  ");
         System.out.println("\n");
 
-        // 构造文法和 LR(1) 解析器
-        Grammar G = new Grammar();
-        LR1Parser parser = new LR1Parser(G);
-        parser.buildStatesAndTables();
-
         parser.printStates();
         parser.printTables();
 
@@ -38,9 +65,55 @@ public class Main {
             System.out.println("Parse failed:\n" + res.message);
         } else {
             int count = 1;
+            optimize(res);
             System.out.println("Parse succeeded. Generated three-address code:");
             for (String line : res.code) System.out.println((count++)+":  " + line);
             System.out.println("\n(Trace and parser messages)\n" + res.message);
+            run(res);
         }
+        printMetrics();
+    }
+
+    // -Dblyl.optimize=true 时优化生成的三地址码并输出优化前后的指令数
+    // 先做跳转优化，循环倒置复制出的条件代码再由局部优化处理，最后分配临时变量
+    private static void optimize(LR1Parser.ParseResult res) {
+        if (!Boolean.getBoolean("blyl.optimize")) return;
+        System.out.println("Control flow: " + new ControlFlowGraph(res.tac).optimize());
+        System.out.println("Optimized: " + new TACOptimizer().optimize(res.tac));
+        System.out.println("Allocated: " + new TempAllocator().allocate(res.tac));
+    }
+
+    // -Dblyl.run=true 时解释执行生成的三地址码并输出变量的值
+    // 同时指定 -Dblyl.jit=true 时编译成 JVM 类执行，程序太大时退回解释执行
+    // 最多跳转 -Dblyl.maxJumps 次(默认 10 亿)，死循环到时停下；停下或除以 0 时输出当时变量的值
+    private static void run(LR1Parser.ParseResult res) {
+        if (!Boolean.getBoolean("blyl.run")) return;
+        long maxJumps = Long.getLong("blyl.maxJumps", 1_000_000_000L);
+        TACInterpreter interpreter = new TACInterpreter(res.tac);
+        TACCompiler compiler = Boolean.getBoolean("blyl.jit") ? compile(interpreter) : null;
+        TACInterpreter.Frame f = interpreter.newFrame();
+        String status = "";
+        try {
+            boolean done = compiler != null ? compiler.run(f, maxJumps) : interpreter.run(f, maxJumps);
+            if (!done) status = " (stopped after " + maxJumps + " jumps)";
+        } catch (ArithmeticException e) {
+            status = " (" + e.getMessage() + ")";
+        }
+        String how = compiler != null ? "Run (compiled, " + compiler.codeSize() + " bytes)" : "Run";
+        System.out.println(how + status + ": " + interpreter.variables(f));
+    }
+
+    private static TACCompiler compile(TACInterpreter interpreter) {
+        try {
+            return new TACCompiler(interpreter);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + ", interpreting");
+            return null;
+        }
+    }
+
+    // -Dblyl.metrics=true 时输出各阶段耗时和计数
+    private static void printMetrics() {
+        if (Metrics.isEnabled()) System.out.println("\nMetrics:\n" + Metrics.snapshot());
     }
 }
@@ -0,0 +1,172 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+
+// 编译过程的计数和计时
+// 默认关闭，用 -Dblyl.metrics=true 或 Metrics.enable() 打开
+// 每个词法分析器/每次分析先记在自己的 Recorder 里(不加锁)，结束时一次合并到全局；关闭时 recorder() 返回 null，热路径上只多一次判空
+public final class Metrics {
+
+    // 阶段: 词法分析、构造分析表、语法分析(不含读单词和生成代码)、生成三地址码
+    public enum Phase { LEX, TABLES, PARSE, CODEGEN }
+
+    private static final int PHASES = Phase.values().length;
+    private static final int TOKEN_TYPES = Lexer.TokenType.values().length;
+    static final int DEPTH_BUCKETS = 32;        // 第 i 格统计深度在 [2^(i-1), 2^i) 的次数，第 0 格是深度 0
+
+    private static volatile boolean enabled = Boolean.getBoolean("blyl.metrics");
+
+    // 全局累计值，只在 merge 时修改
+    private static final Recorder total = new Recorder();
+
+    private Metrics() {}
+
+    public static void enable() { enabled = true; }
+
+    public static void disable() { enabled = false; }
+
+    public static boolean isEnabled() { return enabled; }
+
+    // 新建一个局部记录器，关闭时返回 null
+    static Recorder recorder() {
+        return enabled ? new Recorder() : null;
+    }
+
+    // 单独记一段时间(如构造分析表)
+    static void time(Phase phase, long nanos) {
+        if (!enabled) return;
+        synchronized (total) {
+            total.phaseNanos[phase.ordinal()] += nanos;
+        }
+    }
+
+    public static void reset() {
+        synchronized (total) {
+            total.clear();
+        }
+    }
+
+    public static Snapshot snapshot() {
+        synchronized (total) {
+            return new Snapshot(total);
+        }
+    }
+
+    // 单线程使用的记录器
+    static final class Recorder {
+        final long[] phaseNanos = new long[PHASES];
+        final long[] tokens = new long[TOKEN_TYPES];
+        long shifts;
+        long[] reductions = new long[0];        // 产生式编号 -> 归约次数
+        long[] stateVisits = new long[0];       // 状态编号 -> 在栈顶查表的次数
+        final long[] depth = new long[DEPTH_BUCKETS];
+
+        void token(int type, long nanos) {
+            tokens[type]++;
+            phaseNanos[Phase.LEX.ordinal()] += nanos;
+        }
+
+        // 每一步查表时记录栈顶状态和栈深度
+        void step(int state, int stackDepth) {
+            if (state >= stateVisits.length) stateVisits = Arrays.copyOf(stateVisits, Math.max(state + 1, stateVisits.length * 2));
+            stateVisits[state]++;
+            depth[Math.min(32 - Integer.numberOfLeadingZeros(stackDepth), DEPTH_BUCKETS - 1)]++;
+        }
+
+        void reduce(int prodId) {
+            if (prodId >= reductions.length) reductions = Arrays.copyOf(reductions, Math.max(prodId + 1, reductions.length * 2));
+            reductions[prodId]++;
+        }
+
+        // 合并到全局并清零，可以重复调用
+        void flush() {
+            synchronized (total) {
+                total.add(this);
+            }
+            clear();
+        }
+
+        private void add(Recorder r) {
+            for (int i = 0; i < PHASES; i++) phaseNanos[i] += r.phaseNanos[i];
+            for (int i = 0; i < TOKEN_TYPES; i++) tokens[i] += r.tokens[i];
+            shifts += r.shifts;
+            reductions = addAll(reductions, r.reductions);
+            stateVisits = addAll(stateVisits, r.stateVisits);
+            for (int i = 0; i < DEPTH_BUCKETS; i++) depth[i] += r.depth[i];
+        }
+
+        private void clear() {
+            Arrays.fill(phaseNanos, 0);
+            Arrays.fill(tokens, 0);
+            shifts = 0;
+            Arrays.fill(reductions, 0);
+            Arrays.fill(stateVisits, 0);
+            Arrays.fill(depth, 0);
+        }
+
+        private static long[] addAll(long[] to, long[] from) {
+            if (from.length > to.length) to = Arrays.copyOf(to, from.length);
+            for (int i = 0; i < from.length; i++) to[i] += from[i];
+            return to;
+        }
+    }
+
+    // 某一时刻全局计数的副本
+    public static final class Snapshot {
+        private final long[] phaseNanos, tokens, reductions, stateVisits, depth;
+        private final long shifts;
+
+        private Snapshot(Recorder r) {
+            phaseNanos = r.phaseNanos.clone();
+            tokens = r.tokens.clone();
+            shifts = r.shifts;
+            reductions = r.reductions.clone();
+            stateVisits = r.stateVisits.clone();
+            depth = r.depth.clone();
+        }
+
+        public long nanos(Phase phase) { return phaseNanos[phase.ordinal()]; }
+
+        public long tokens(Lexer.TokenType type) { return tokens[type.ordinal()]; }
+
+        public long tokens() { return Arrays.stream(tokens).sum(); }
+
+        public long shifts() { return shifts; }
+
+        public long reductions(int prodId) { return prodId < reductions.length ? reductions[prodId] : 0; }
+
+        public long reductions() { return Arrays.stream(reductions).sum(); }
+
+        // 每个状态被访问的次数，以及至少访问过一次的状态数
+        public long[] stateVisits() { return stateVisits.clone(); }
+
+        public int statesVisited() { return (int) Arrays.stream(stateVisits).filter(v -> v > 0).count(); }
+
+        // 栈深度直方图，第 i 格的范围见 DEPTH_BUCKETS
+        public long[] depthHistogram() { return depth.clone(); }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Phase p : Phase.values()) {
+                sb.append(String.format("%-8s %10.3f ms%n", p, nanos(p) / 1e6));
+            }
+            sb.append("tokens  ");
+            for (Lexer.TokenType t : Lexer.TokenType.values()) {
+                if (tokens(t) > 0) sb.append(' ').append(t).append('=').append(tokens(t));
+            }
+            sb.append(String.format("%nshifts=%d reductions=%d statesVisited=%d%n", shifts, reductions(), statesVisited()));
+            sb.append("reductions by production:");
+            for (int i = 0; i < reductions.length; i++) {
+                if (reductions[i] > 0) sb.append(' ').append(i).append('=').append(reductions[i]);
+            }
+            sb.append("\nstack depth:");
+            for (int i = 0; i < DEPTH_BUCKETS; i++) {
+                if (depth[i] == 0) continue;
+                int lo = i == 0 ? 0 : 1 << (i - 1);
+                sb.append(' ').append(i <= 1 ? String.valueOf(lo) : lo + "-" + ((1 << i) - 1)).append(':').append(depth[i]);
+            }
+            return sb.append('\n').toString();
+        }
+    }
+}
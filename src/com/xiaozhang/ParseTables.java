@@ -0,0 +1,209 @@
+package com.xiaozhang;
+
+import java.util.*;
+
+// 压缩后的 LR 分析表
+// 终结符/非终结符都编成稠密整数，ACTION/GOTO 表按行位移(comb)压缩存放在一维 int[] 中，
+// 查表时只需要 base[state]+symbol 一次下标计算和 check 校验，不做任何哈希
+// 构造后不再修改，可以被多个线程共享
+public class ParseTables {
+
+    public static final int ERROR = Integer.MIN_VALUE;  // 空表项(出错)
+    static final int EMPTY = -1;                        // check 数组中的空位
+
+    final String[] terminals;           // 终结符编号 -> 名字，最后一个是 "$"
+    final String[] nonterminals;        // 非终结符编号 -> 名字
+    final Map<String, Integer> termIds;
+    final Map<String, Integer> ntIds;
+    final int unknownTerm;              // 文法中没有的终结符(如 err)统一映射到这一列
+
+    final int stateCount;
+
+    // ACTION 表: >0 移进到状态, <0 按 -值 归约, 0 接受, ERROR 出错
+    final int[] actBase;
+    final int[] actDefault;             // 每个状态的默认动作(出现最多的归约)
+    final int[] actCheck;
+    final int[] actValue;
+
+    // GOTO 表
+    final int[] gotoBase;
+    final int[] gotoCheck;
+    final int[] gotoValue;
+
+    // 产生式信息: 左部编号和右部长度
+    final int[] prodLhs;
+    final int[] prodLen;
+
+    ParseTables(String[] terminals, String[] nonterminals, int stateCount,
+                int[] actBase, int[] actDefault, int[] actCheck, int[] actValue,
+                int[] gotoBase, int[] gotoCheck, int[] gotoValue,
+                int[] prodLhs, int[] prodLen) {
+        this.terminals = terminals;
+        this.nonterminals = nonterminals;
+        this.termIds = indexOf(terminals);
+        this.ntIds = indexOf(nonterminals);
+        this.unknownTerm = terminals.length;
+        this.stateCount = stateCount;
+        this.actBase = actBase;
+        this.actDefault = actDefault;
+        this.actCheck = actCheck;
+        this.actValue = actValue;
+        this.gotoBase = gotoBase;
+        this.gotoCheck = gotoCheck;
+        this.gotoValue = gotoValue;
+        this.prodLhs = prodLhs;
+        this.prodLen = prodLen;
+    }
+
+    private static Map<String, Integer> indexOf(String[] names) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < names.length; i++) ids.put(names[i], i);
+        return Collections.unmodifiableMap(ids);
+    }
+
+    // 由稠密表构造压缩表
+    // action[state][term] 的列数为 terminals.length+1 (最后一列是 unknownTerm)，goTo[state][nt]
+    static ParseTables compress(String[] terminals, String[] nonterminals,
+                                int[][] action, int[][] goTo, int[] prodLhs, int[] prodLen) {
+        int n = action.length;
+
+        // 求每个状态的默认归约，并把和默认动作相同的表项去掉
+        int[] def = new int[n];
+        int[][] actRows = new int[n][];
+        for (int s = 0; s < n; s++) {
+            def[s] = mostFrequentReduce(action[s]);
+            actRows[s] = action[s].clone();
+            if (def[s] != ERROR) {
+                for (int t = 0; t < actRows[s].length; t++) {
+                    if (actRows[s][t] == def[s]) actRows[s][t] = ERROR;
+                }
+            }
+        }
+
+        int[] actBase = new int[n];
+        int[][] act = pack(actRows, actBase);
+        int[] gotoBase = new int[n];
+        int[][] gt = pack(goTo, gotoBase);
+
+        return new ParseTables(terminals, nonterminals, n,
+                actBase, def, act[0], act[1],
+                gotoBase, gt[0], gt[1],
+                prodLhs, prodLen);
+    }
+
+    private static int mostFrequentReduce(int[] row) {
+        Map<Integer, Integer> cnt = new HashMap<>();
+        int best = ERROR, bestCnt = 0;
+        for (int v : row) {
+            if (v == ERROR || v >= 0) continue;
+            int c = cnt.merge(v, 1, Integer::sum);
+            if (c > bestCnt) { best = v; bestCnt = c; }
+        }
+        return best;
+    }
+
+    // 行位移压缩: 按非空项数从多到少，为每一行找第一个与已放置表项不冲突的位移
+    // 返回 {check, value}，位移写入 base
+    private static int[][] pack(int[][] rows, int[] base) {
+        int n = rows.length;
+        int width = n == 0 ? 0 : rows[0].length;
+        Integer[] order = new Integer[n];
+        int[] filled = new int[n];
+        for (int s = 0; s < n; s++) {
+            order[s] = s;
+            for (int v : rows[s]) if (v != ERROR) filled[s]++;
+        }
+        Arrays.sort(order, (a, b) -> filled[b] - filled[a]);
+
+        int cap = Math.max(16, width * 2);
+        int[] check = new int[cap];
+        int[] value = new int[cap];
+        Arrays.fill(check, EMPTY);
+        int used = 0;
+        int firstFree = 0;              // check 中第一个空位，之前的位置不用再试
+        int[] cols = new int[width];
+
+        for (int s : order) {
+            int[] row = rows[s];
+            int m = 0;
+            for (int t = 0; t < width; t++) if (row[t] != ERROR) cols[m++] = t;
+            int b = 0;
+            if (m > 0) {
+                b = Math.max(0, firstFree - cols[0]);
+                while (!fits(cols, m, check, b)) b++;
+            }
+            base[s] = b;
+            if (b + width > cap) {
+                int newCap = Math.max(cap * 2, b + width);
+                check = Arrays.copyOf(check, newCap);
+                value = Arrays.copyOf(value, newCap);
+                Arrays.fill(check, cap, newCap, EMPTY);
+                cap = newCap;
+            }
+            for (int k = 0; k < m; k++) {
+                check[b + cols[k]] = s;
+                value[b + cols[k]] = row[cols[k]];
+            }
+            used = Math.max(used, b + width);
+            while (firstFree < cap && check[firstFree] != EMPTY) firstFree++;
+        }
+        return new int[][]{Arrays.copyOf(check, used), Arrays.copyOf(value, used)};
+    }
+
+    private static boolean fits(int[] cols, int m, int[] check, int b) {
+        for (int k = 0; k < m; k++) {
+            int i = b + cols[k];
+            if (i < check.length && check[i] != EMPTY) return false;
+        }
+        return true;
+    }
+
+    // 查 ACTION 表
+    public int action(int state, int term) {
+        int i = actBase[state] + term;
+        return actCheck[i] == state ? actValue[i] : actDefault[state];
+    }
+
+    // 查 GOTO 表
+    public int goTo(int state, int nt) {
+        int i = gotoBase[state] + nt;
+        return gotoCheck[i] == state ? gotoValue[i] : ERROR;
+    }
+
+    // 终结符名字 -> 编号，文法中没有的返回 unknownTerm
+    public int terminalId(String name) {
+        Integer id = termIds.get(name);
+        return id == null ? unknownTerm : id;
+    }
+
+    public String terminalName(int id) {
+        return id < terminals.length ? terminals[id] : "err";
+    }
+
+    public int stateCount() { return stateCount; }
+
+    // 表占用的 int 个数
+    public int size() {
+        return actBase.length + actDefault.length + actCheck.length + actValue.length
+                + gotoBase.length + gotoCheck.length + gotoValue.length;
+    }
+
+    // 显式存放的 ACTION 表项(不含默认动作)，用于打印
+    Map<String, Integer> actionRow(int state) {
+        Map<String, Integer> row = new LinkedHashMap<>();
+        for (int t = 0; t < terminals.length; t++) {
+            int i = actBase[state] + t;
+            if (actCheck[i] == state) row.put(terminals[t], actValue[i]);
+        }
+        return row;
+    }
+
+    Map<String, Integer> gotoRow(int state) {
+        Map<String, Integer> row = new LinkedHashMap<>();
+        for (int nt = 0; nt < nonterminals.length; nt++) {
+            int i = gotoBase[state] + nt;
+            if (gotoCheck[i] == state) row.put(nonterminals[nt], gotoValue[i]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,214 @@
+package com.xiaozhang;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// 分析过程记录
+// 每一步是一条定长的二进制记录 (step, state, token, terminal, action)，写进预先分配好的环形缓冲区，只保留最近 capacity 条
+// 缓冲区可以在堆上，也可以是内存映射文件；写文件时头部的计数随每条记录更新，进程异常退出后文件中仍是完整的记录
+// 记录时不做任何格式化，需要看的时候再用 render 还原成文本
+// 文件头: magic, version, capacity, sampleEvery, from, to, steps, written；之后是 capacity 条记录
+public final class ParseTrace {
+
+    private static final int MAGIC = 0x424C5954;    // "BLYT"
+    private static final int VERSION = 1;
+    static final int HEADER = 4 + 4 + 4 + 4 + 8 + 8 + 8 + 8;
+    static final int RECORD = 5 * 4;
+    private static final int STEPS_AT = 32, WRITTEN_AT = 40;
+
+    private static final Lexer.TokenType[] TYPES = Lexer.TokenType.values();
+
+    private final ByteBuffer buf;
+    private final int capacity;
+    private int sampleEvery = 1;                // 每 sampleEvery 步记一条
+    private long from = 0, to = Long.MAX_VALUE; // 只记录 [from, to) 内的步
+    private long steps;                         // 已经过的步数
+    private long written;                       // 已写入的记录数(包括被覆盖的)
+
+    // 堆上的记录同时保存当前单词的文本，render 时不需要源程序
+    private final String[] lexeme;
+    private final byte[] type;
+    private final int[] line, col;
+
+    private ParseTrace(ByteBuffer buf, int capacity, boolean keepTokens) {
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        this.capacity = capacity;
+        lexeme = keepTokens ? new String[capacity] : null;
+        type = keepTokens ? new byte[capacity] : null;
+        line = keepTokens ? new int[capacity] : null;
+        col = keepTokens ? new int[capacity] : null;
+    }
+
+    // 堆上的环形缓冲区
+    public static ParseTrace inMemory(int capacity) {
+        ParseTrace t = new ParseTrace(ByteBuffer.allocate(HEADER + capacity * RECORD), capacity, true);
+        t.writeHeader();
+        return t;
+    }
+
+    // 写到内存映射文件，文件已存在时覆盖
+    public static ParseTrace mapped(Path file, int capacity) throws IOException {
+        MappedByteBuffer m;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            m = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * RECORD);
+        }
+        ParseTrace t = new ParseTrace(m, capacity, false);
+        t.writeHeader();
+        return t;
+    }
+
+    // 读取 mapped 写出的文件，用于事后分析
+    public static ParseTrace load(Path file) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (b.capacity() < HEADER || b.getInt(0) != MAGIC || b.getInt(4) != VERSION)
+            throw new IOException("Not a parse trace: " + file);
+        int capacity = b.getInt(8);
+        if (capacity <= 0 || b.capacity() != HEADER + (long) capacity * RECORD)
+            throw new IOException("Truncated parse trace: " + file);
+        ParseTrace t = new ParseTrace(b, capacity, false);
+        t.sampleEvery = b.getInt(12);
+        t.from = b.getLong(16);
+        t.to = b.getLong(24);
+        t.steps = b.getLong(STEPS_AT);
+        t.written = b.getLong(WRITTEN_AT);
+        return t;
+    }
+
+    // 采样: 每 n 步记录一条
+    public ParseTrace sampleEvery(int n) {
+        if (n < 1) throw new IllegalArgumentException("sampleEvery " + n);
+        sampleEvery = n;
+        writeHeader();
+        return this;
+    }
+
+    // 只记录第 from 步(含)到第 to 步(不含)
+    public ParseTrace window(long from, long to) {
+        this.from = from;
+        this.to = to;
+        writeHeader();
+        return this;
+    }
+
+    private void writeHeader() {
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, VERSION);
+        buf.putInt(8, capacity);
+        buf.putInt(12, sampleEvery);
+        buf.putLong(16, from);
+        buf.putLong(24, to);
+        buf.putLong(STEPS_AT, steps);
+        buf.putLong(WRITTEN_AT, written);
+    }
+
+    // 分析器每查一次 ACTION 表调用一次；token 是当前单词的序号(从 0 开始)
+    void step(int token, int state, int term, int action, TokenStream in) {
+        long s = steps++;
+        if (s >= from && s < to && (s - from) % sampleEvery == 0) {
+            int slot = (int) (written % capacity);
+            int at = HEADER + slot * RECORD;
+            buf.putInt(at, (int) s);
+            buf.putInt(at + 4, state);
+            buf.putInt(at + 8, token);
+            buf.putInt(at + 12, term);
+            buf.putInt(at + 16, action);
+            if (lexeme != null) {
+                lexeme[slot] = in.lexeme();
+                type[slot] = (byte) in.type().ordinal();
+                line[slot] = in.line();
+                col[slot] = in.col();
+            }
+            buf.putLong(WRITTEN_AT, ++written);
+        }
+        buf.putLong(STEPS_AT, steps);
+    }
+
+    // 把映射文件的内容刷到磁盘
+    public void force() {
+        if (buf instanceof MappedByteBuffer) ((MappedByteBuffer) buf).force();
+    }
+
+    public long steps() { return steps; }
+
+    // 缓冲区中现有的记录数，编号 0 是最早的一条
+    public int size() { return (int) Math.min(written, capacity); }
+
+    private int at(int i, int field) {
+        if (i < 0 || i >= size()) throw new IndexOutOfBoundsException(i);
+        long first = written - size();
+        return buf.getInt(HEADER + (int) ((first + i) % capacity) * RECORD + field * 4);
+    }
+
+    private int slot(int i) { return (int) ((written - size() + i) % capacity); }
+
+    public int step(int i) { return at(i, 0); }
+
+    public int state(int i) { return at(i, 1); }
+
+    public int token(int i) { return at(i, 2); }
+
+    public int terminal(int i) { return at(i, 3); }
+
+    public int action(int i) { return at(i, 4); }
+
+    // 还原成文本；堆上的记录用保存的单词，否则只能给出终结符名字和单词序号
+    public String render(ParseTables tables) {
+        return render(tables, null);
+    }
+
+    // tokens 是重新对源程序做词法分析得到的单词表，用来还原单词的文本和位置
+    public String render(ParseTables tables, List<Lexer.Token> tokens) {
+        StringBuilder sb = new StringBuilder();
+        long expect = 0;            // 下一条记录应有的步号，不连续时说明中间有步没有记录
+        int n = size();
+        for (int i = 0; i < n; i++) {
+            long s = step(i) & 0xFFFFFFFFL;
+            if (s != (expect & 0xFFFFFFFFL)) {
+                long gap = (s - expect) & 0xFFFFFFFFL;
+                sb.append("... ").append(gap).append(" steps not recorded\n");
+            }
+            expect = s + 1;
+            int k = token(i);
+            String cur;
+            if (lexeme != null) {
+                int slot = slot(i);
+                cur = "(" + lexeme[slot] + "," + TYPES[type[slot]] + ") @" + line[slot] + ":" + col[slot];
+            } else if (tokens != null && k < tokens.size()) {
+                cur = tokens.get(k).toString();
+            } else {
+                int t = terminal(i);
+                cur = "(" + (t < tables.terminals.length ? tables.terminalName(t) : "?") + ") #" + k;
+            }
+            int act = action(i);
+            sb.append("State=").append(state(i)).append(", 读头下的符号=").append(cur)
+                    .append(", action=").append(act == ParseTables.ERROR ? "null" : String.valueOf(act)).append('\n');
+            if (act == 0) sb.append("Accept.\n");
+        }
+        if (steps > expect) sb.append("... ").append(steps - expect).append(" steps not recorded\n");
+        return sb.toString();
+    }
+
+    // 离线解码: ParseTrace <trace文件> [源程序]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ParseTrace <trace file> [source file]");
+            System.exit(2);
+        }
+        ParseTrace t = load(Paths.get(args[0]));
+        LR1Parser parser = new LR1Parser(new Grammar());
+        List<Lexer.Token> tokens = null;
+        if (args.length > 1) {
+            tokens = new Lexer(Files.readString(Paths.get(args[1])), parser.terminalIds()).tokenize();
+        }
+        System.out.print(t.render(parser.tables(), tokens));
+    }
+}
@@ -0,0 +1,230 @@
+package com.xiaozhang;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// 分析器生成器: 读取文法文件(格式见 GrammarFile)，构造分析表，生成一个专用的分析器类
+// 生成的类中:
+// - 压缩后的 ACTION/GOTO 表是 static final 数组，以字符串常量的形式存放(每个 int 两个 char)，类初始化时解开，启动时不构造分析表
+// - 分析循环直接查这些数组，每条产生式的语义动作展开在 reduce 的一个 case 中
+// - 遇到第一个语法错误就停止(非法字符报告后跳过)；需要错误恢复、分析记录或统计时用 LR1Parser
+// 用法: ParserGenerator <文法文件> <输出目录>，输出 <输出目录>/com/xiaozhang/<类名>.java
+public final class ParserGenerator {
+
+    private static final int CHUNK = 4000;         // 每个字符串常量最多存放的 int 个数，保证常量不超过 65535 字节
+    private static final Pattern VALUE = Pattern.compile("\\$(\\d+)(?!\\d)");
+
+    private ParserGenerator() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: ParserGenerator <grammar file> <output directory>");
+            System.exit(2);
+        }
+        Path in = Paths.get(args[0]);
+        GrammarFile gf;
+        try {
+            gf = GrammarFile.read(in);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        LR1Builder b = new LR1Builder(gf.grammar);
+        b.build(gf.mode);
+        ParseTables t = b.tables();
+        for (String c : b.conflicts) System.err.println(in.getFileName() + ": " + c);
+
+        Path out = Paths.get(args[1]).resolve("com/xiaozhang").resolve(gf.className + ".java");
+        Files.createDirectories(out.getParent());
+        Files.writeString(out, generate(gf, t, in.getFileName().toString()));
+        System.out.println("Generated " + out + " (" + t.stateCount() + " states, " + t.size() + " table ints)");
+    }
+
+    // 生成的源程序
+    static String generate(GrammarFile gf, ParseTables t, String source) {
+        StringBuilder sb = new StringBuilder(1 << 16);
+        Grammar g = gf.grammar;
+        sb.append("// 由 ParserGenerator 根据 ").append(source).append(" 生成，不要手工修改\n");
+        sb.append("package com.xiaozhang;\n\n");
+        sb.append("import com.xiaozhang.LR1Parser.SemInfo;\n\n");
+        sb.append("import java.util.ArrayList;\n");
+        sb.append("import java.util.Arrays;\n");
+        sb.append("import java.util.List;\n\n");
+        sb.append("import static com.xiaozhang.TACGenerator.NONE;\n\n");
+        sb.append("// ").append(gf.mode).append(" 分析表，").append(t.stateCount()).append(" 个状态，")
+                .append(g.prods.size()).append(" 条产生式\n");
+        sb.append("public final class ").append(gf.className).append(" {\n\n");
+        sb.append("    private ").append(gf.className).append("() {}\n\n");
+        sb.append("    // 文法指纹，与 Grammar.fingerprint() 相同\n");
+        sb.append("    public static final long FINGERPRINT = 0x").append(Long.toHexString(g.fingerprint())).append("L;\n\n");
+
+        sb.append("    static final String[] TERMINALS = ").append(strings(t.terminals)).append(";\n");
+        sb.append("    static final String[] NONTERMINALS = ").append(strings(t.nonterminals)).append(";\n");
+        sb.append("    static final int STATES = ").append(t.stateCount).append(";\n\n");
+        array(sb, "ACT_BASE", t.actBase);
+        array(sb, "ACT_DEFAULT", t.actDefault);
+        array(sb, "ACT_CHECK", t.actCheck);
+        array(sb, "ACT_VALUE", t.actValue);
+        array(sb, "GOTO_BASE", t.gotoBase);
+        array(sb, "GOTO_CHECK", t.gotoCheck);
+        array(sb, "GOTO_VALUE", t.gotoValue);
+        array(sb, "PROD_LHS", t.prodLhs);
+        array(sb, "PROD_LEN", t.prodLen);
+        sb.append("\n    public static final ParseTables TABLES = new ParseTables(TERMINALS, NONTERMINALS, STATES,\n")
+                .append("            ACT_BASE, ACT_DEFAULT, ACT_CHECK, ACT_VALUE, GOTO_BASE, GOTO_CHECK, GOTO_VALUE, PROD_LHS, PROD_LEN);\n\n");
+
+        sb.append(DRIVER);
+
+        sb.append("    // 归约: 右部各符号的值在 v[sp..]，返回左部的值\n");
+        sb.append("    private static SemInfo reduce(int prod, SemInfo[] v, int sp, TACGenerator g) {\n");
+        sb.append("        SemInfo $$;\n");
+        sb.append("        switch (prod) {\n");
+        for (int p = 1; p < g.prods.size(); p++) {
+            Grammar.Prod prod = g.prods.get(p);
+            int len = prod.right.size();
+            String action = gf.actions[p];
+            sb.append("            case ").append(p).append(": { // ").append(prod.left).append(" -> ")
+                    .append(len == 0 ? "%empty" : String.join(" ", prod.right)).append('\n');
+            if (action == null) {
+                sb.append(len > 0 ? "                $$ = v[sp];\n" : "                $$ = new SemInfo(NONE, Code.EMPTY);\n");
+            } else {
+                boolean[] used = new boolean[len + 1];
+                Matcher m = VALUE.matcher(action);
+                while (m.find()) {
+                    int k = Integer.parseInt(m.group(1));
+                    if (k < 1 || k > len) {
+                        throw new IllegalArgumentException("production " + p + " (" + prod + "): $" + k + " out of range");
+                    }
+                    used[k] = true;
+                }
+                for (int k = 1; k <= len; k++) {
+                    if (used[k]) sb.append("                SemInfo $").append(k).append(" = v[sp").append(k > 1 ? " + " + (k - 1) : "").append("];\n");
+                }
+                for (String line : action.strip().split("\n")) {
+                    sb.append("                ").append(line.strip()).append('\n');
+                }
+            }
+            sb.append("                break;\n            }\n");
+        }
+        sb.append("            default:\n                $$ = new SemInfo(NONE, Code.EMPTY);\n        }\n");
+        sb.append("        return $$;\n    }\n");
+
+        if (!gf.members.isBlank()) sb.append('\n').append(gf.members.stripTrailing()).append('\n');
+        sb.append(UNPACK);
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // 分析循环
+    private static final String DRIVER = String.join("\n",
+            "    // 编译一段源程序",
+            "    public static LR1Parser.ParseResult compile(String source) {",
+            "        return parse(new Lexer(source, TABLES.termIds));",
+            "    }",
+            "",
+            "    public static LR1Parser.ParseResult parse(TokenStream in) {",
+            "        int[] states = new int[64];",
+            "        SemInfo[] values = new SemInfo[64];",
+            "        int top = 0;",
+            "        TACGenerator g = new TACGenerator();",
+            "        List<String> errors = new ArrayList<>();",
+            "        int a = LR1Parser.terminalOf(TABLES, in, in.advance());",
+            "        while (true) {",
+            "            int s = states[top];",
+            "            int i = ACT_BASE[s] + a;",
+            "            int act = ACT_CHECK[i] == s ? ACT_VALUE[i] : ACT_DEFAULT[s];",
+            "            if (act > 0) {",
+            "                if (++top == states.length) {",
+            "                    states = Arrays.copyOf(states, top * 2);",
+            "                    values = Arrays.copyOf(values, top * 2);",
+            "                }",
+            "                states[top] = act;",
+            "                values[top] = new SemInfo(in.lexeme());",
+            "                a = LR1Parser.terminalOf(TABLES, in, in.advance());",
+            "            } else if (act < 0 && act != ParseTables.ERROR) {",
+            "                int p = -act;",
+            "                top -= PROD_LEN[p];",
+            "                SemInfo v = errors.isEmpty() ? reduce(p, values, top + 1, g) : null;",
+            "                int j = GOTO_BASE[states[top]] + PROD_LHS[p];",
+            "                if (GOTO_CHECK[j] != states[top]) {",
+            "                    errors.add(\"Parsing error: no goto from state \" + states[top] + \" on \" + NONTERMINALS[PROD_LHS[p]]);",
+            "                    return new LR1Parser.ParseResult(errors);",
+            "                }",
+            "                if (++top == states.length) {",
+            "                    states = Arrays.copyOf(states, top * 2);",
+            "                    values = Arrays.copyOf(values, top * 2);",
+            "                }",
+            "                states[top] = GOTO_VALUE[j];",
+            "                values[top] = v;",
+            "            } else if (act == 0) {",
+            "                if (!errors.isEmpty()) return new LR1Parser.ParseResult(errors);",
+            "                if (top == 0) return new LR1Parser.ParseResult(true, new ArrayList<>(), \"OK(no code)\");",
+            "                g.emit(values[top].code);",
+            "                LR1Parser.ParseResult r = new LR1Parser.ParseResult(true, g.getCode(), \"OK\");",
+            "                r.tac = g;",
+            "                return r;",
+            "            } else if (in.type() == Lexer.TokenType.ERROR) {",
+            "                errors.add(LR1Parser.lexicalError(in));",
+            "                a = LR1Parser.terminalOf(TABLES, in, in.advance());",
+            "            } else {",
+            "                errors.add(LR1Parser.syntaxError(in));",
+            "                return new LR1Parser.ParseResult(errors);",
+            "            }",
+            "        }",
+            "    }",
+            "", "");
+
+    private static final String UNPACK = String.join("\n",
+            "",
+            "    // 每个 int 存成两个 char，高 16 位在前",
+            "    private static int[] unpack(String... parts) {",
+            "        String s = String.join(\"\", parts);",
+            "        int[] a = new int[s.length() / 2];",
+            "        for (int i = 0; i < a.length; i++) a[i] = s.charAt(2 * i) << 16 | s.charAt(2 * i + 1);",
+            "        return a;",
+            "    }",
+            "");
+
+    private static String strings(String[] names) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('"');
+            escape(sb, names[i]);
+            sb.append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void array(StringBuilder sb, String name, int[] a) {
+        sb.append("    static final int[] ").append(name).append(" = unpack(");
+        for (int from = 0; from < a.length || from == 0; from += CHUNK) {
+            if (from > 0) sb.append(',');
+            sb.append("\n            \"");
+            StringBuilder chars = new StringBuilder();
+            for (int i = from; i < Math.min(a.length, from + CHUNK); i++) {
+                chars.append((char) (a[i] >>> 16)).append((char) a[i]);
+            }
+            escape(sb, chars);
+            sb.append('"');
+        }
+        sb.append(");\n");
+    }
+
+    // 字符串常量中的字符: 可打印的 ASCII 原样输出，其余用八进制或 \\u 转义
+    // 换行、引号、反斜杠不能用 \\u 转义(编译器在词法分析前就替换了)，它们都小于 0x100，用八进制
+    private static void escape(StringBuilder sb, CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c >= 0x20 && c < 0x7F) sb.append(c);
+            else if (c < 0x100) sb.append('\\').append(String.format("%03o", (int) c));
+            else sb.append(String.format("\\u%04x", (int) c));
+        }
+    }
+}
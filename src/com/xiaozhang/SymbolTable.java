@@ -0,0 +1,93 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+
+// 单词文本的驻留表
+// 直接用缓冲区中的字符查找，已有的符号不再分配任何对象；名字字符串在第一次用到时才创建
+public class SymbolTable {
+
+    private char[] pool = new char[1024];     // 所有符号的字符依次存放
+    private int poolLen;
+    private int[] offset = new int[64];
+    private int[] length = new int[64];
+    private int[] hash = new int[64];
+    private String[] names = new String[64];
+    private int count;
+
+    private int[] slots = new int[128];        // 开放定址，存放 符号编号+1，0 为空
+    private final int reserved;
+
+    // 预先放入的符号(如关键字)编号为 0..words.length-1
+    public SymbolTable(Iterable<String> words) {
+        for (String w : words) {
+            char[] cs = w.toCharArray();
+            intern(cs, 0, cs.length);
+        }
+        reserved = count;
+    }
+
+    // 预先放入的符号个数
+    public int reserved() { return reserved; }
+
+    public int size() { return count; }
+
+    public int intern(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) h = 31 * h + buf[i];
+        int mask = slots.length - 1;
+        int i = mix(h) & mask;
+        while (true) {
+            int s = slots[i] - 1;
+            if (s < 0) break;
+            if (hash[s] == h && length[s] == len
+                    && Arrays.equals(pool, offset[s], offset[s] + len, buf, off, off + len)) {
+                return s;
+            }
+            i = (i + 1) & mask;
+        }
+        int id = add(buf, off, len, h);
+        slots[i] = id + 1;
+        if (count * 2 > slots.length) rehash();
+        return id;
+    }
+
+    public String name(int id) {
+        String s = names[id];
+        if (s == null) {
+            s = new String(pool, offset[id], length[id]);
+            names[id] = s;
+        }
+        return s;
+    }
+
+    private int add(char[] buf, int off, int len, int h) {
+        if (poolLen + len > pool.length) pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolLen + len));
+        System.arraycopy(buf, off, pool, poolLen, len);
+        if (count == offset.length) {
+            int n = count * 2;
+            offset = Arrays.copyOf(offset, n);
+            length = Arrays.copyOf(length, n);
+            hash = Arrays.copyOf(hash, n);
+            names = Arrays.copyOf(names, n);
+        }
+        offset[count] = poolLen;
+        length[count] = len;
+        hash[count] = h;
+        poolLen += len;
+        return count++;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int s = 0; s < count; s++) {
+            int i = mix(hash[s]) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = s + 1;
+        }
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,438 @@
+package com.xiaozhang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Map;
+
+// 把三地址码编译成 JVM 类，以隐藏类的方式加载，循环由 HotSpot 的 JIT 编译
+// 以 TACInterpreter 翻译好的寄存器指令为输入，槽位、类型和跳转目标都已确定:
+// - 每个槽位对应一个 long/double 局部变量，方法开头从帧中读入，结束时写回，帧的布局与解释器相同
+// - 每条寄存器指令对应几条 JVM 指令，ifFalse 对应 lcmp/dcmp + 条件跳转
+// - 与解释器一样限制跳转次数: 每次跳转前减一，用完时写回并返回 false
+// - 除以 0 时异常处理代码先写回所有槽位再重新抛出，帧中是出错时的值，与解释器相同
+// 类文件由下面的代码直接写出(版本 61)，所有跳转目标处的栈为空、局部变量类型都相同，StackMapTable 只需同一个帧(异常处理处栈中多一个异常)
+// 生成的方法不能超过 32KB，局部变量不能超过 65535 个，超出时构造函数抛出 IllegalArgumentException，可以退回解释执行
+public class TACCompiler {
+
+    // 生成的类实现这个接口
+    interface Compiled {
+        boolean run(long[] ints, double[] doubles, long maxJumps);
+    }
+
+    private static final String CLASS = "com/xiaozhang/TACCompiled";
+    private static final int MAX_CODE = Short.MAX_VALUE;
+
+    // 常量池
+    private static final int CP_THIS = 2, CP_OBJECT = 4, CP_COMPILED = 6, CP_OBJECT_INIT = 10;
+    private static final int CP_INIT = 7, CP_VOID = 8, CP_RUN = 11, CP_RUN_TYPE = 12;
+    private static final int CP_CODE = 13, CP_STACK_MAP = 14, CP_LONG_ARRAY = 16, CP_DOUBLE_ARRAY = 18, CP_THROWABLE = 20;
+    private static final int CP_COUNT = 21;
+
+    // 用到的 JVM 指令
+    private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, LCONST_0 = 0x09, LCONST_1 = 0x0a, BIPUSH = 0x10, SIPUSH = 0x11;
+    private static final int LLOAD = 0x16, DLOAD = 0x18, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c;
+    private static final int LALOAD = 0x2f, DALOAD = 0x31, LSTORE = 0x37, DSTORE = 0x39, LASTORE = 0x50, DASTORE = 0x52, DUP2 = 0x5c;
+    private static final int LADD = 0x61, DADD = 0x63, LSUB = 0x65, DSUB = 0x67, LMUL = 0x69, DMUL = 0x6b, LDIV = 0x6d, DDIV = 0x6f;
+    private static final int L2D = 0x8a, LCMP = 0x94, DCMPL = 0x97, DCMPG = 0x98;
+    private static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    private static final int GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1, INVOKESPECIAL = 0xb7, ATHROW = 0xbf, WIDE = 0xc4;
+
+    private static final int[] LONG_OPS = {LADD, LSUB, LMUL, LDIV};
+    private static final int[] DOUBLE_OPS = {DADD, DSUB, DMUL, DDIV};
+    // ifFalse a op b: 条件成立时跳过计数和 goto；浮点比较时 NaN 要让条件不成立，所以 < 和 <= 用 dcmpg，其余用 dcmpl
+    private static final int[] JUMP_IF = {IFLT, IFGT, IFLE, IFGE, IFNE, IFEQ};
+    private static final int[] DOUBLE_CMP = {DCMPG, DCMPL, DCMPG, DCMPL, DCMPL, DCMPL};
+
+    private final TACInterpreter program;
+    private final Compiled compiled;
+
+    private final int ints, doubles;
+    private byte[] code = new byte[256];
+    private int size;
+    private int codeSize;
+    private int bodyStart, bodyEnd;     // 程序对应的字节码，不包括开头和结尾
+    private int handler;                // 异常处理代码的位置，程序为空时没有，是 -1
+
+    public TACCompiler(TACGenerator g) {
+        this(new TACInterpreter(g));
+    }
+
+    public TACCompiler(TACInterpreter program) {
+        this.program = program;
+        ints = program.intInit.length;
+        doubles = program.doubleInit.length;
+        if (5 + 2L * (ints + doubles) > 0xFFFF) throw new IllegalArgumentException("Too many variables for a JVM method");
+        byte[] bytes = classFile();
+        code = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            compiled = (Compiled) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot load compiled program", e);
+        }
+    }
+
+    // 生成的字节码长度
+    public int codeSize() { return codeSize; }
+
+    public TACInterpreter.Frame newFrame() { return program.newFrame(); }
+
+    public TACInterpreter.Frame run() {
+        TACInterpreter.Frame f = program.newFrame();
+        run(f, Long.MAX_VALUE);
+        return f;
+    }
+
+    // 在帧 f 上执行，最多跳转 maxJumps 次；与 TACInterpreter.run 相同，正常结束返回 true，跳转次数用完返回 false
+    public boolean run(TACInterpreter.Frame f, long maxJumps) {
+        return compiled.run(f.ints, f.doubles, maxJumps);
+    }
+
+    public Number get(TACInterpreter.Frame f, String var) { return program.get(f, var); }
+
+    public Map<String, Number> variables(TACInterpreter.Frame f) { return program.variables(f); }
+
+    // 局部变量: 0 是 this，1、2 是两个数组，3 是剩余的跳转次数，之后是整数槽位和浮点槽位，各占两个位置
+    private static final int BUDGET = 3;
+
+    private int intLocal(int slot) { return 5 + 2 * slot; }
+
+    private int doubleLocal(int slot) { return 5 + 2 * ints + 2 * slot; }
+
+    // run 方法的字节码，返回需要栈帧的位置
+    private int[] body() {
+        int[] rc = program.code;
+        int n = rc.length / 4;
+
+        // 开头: 从帧中读入所有槽位
+        for (int s = 0; s < ints; s++) {
+            u1(ALOAD_1);
+            push(s);
+            u1(LALOAD);
+            local(LSTORE, intLocal(s));
+        }
+        for (int s = 0; s < doubles; s++) {
+            u1(ALOAD_2);
+            push(s);
+            u1(DALOAD);
+            local(DSTORE, doubleLocal(s));
+        }
+
+        int[] at = new int[n + 1];          // 寄存器指令 -> 字节码位置，at[n] 是结尾
+        int[] branchAt = new int[n];        // 跳转指令的位置，没有跳转时为 -1
+        int[] exitAt = new int[n];          // 跳转次数用完时跳到结尾的 iflt 的位置
+        boolean[] frame = new boolean[n + 1];
+        bodyStart = size;
+        for (int i = 0; i < n; i++) {
+            int op = rc[4 * i], a = rc[4 * i + 1], b = rc[4 * i + 2], r = rc[4 * i + 3];
+            at[i] = size;
+            branchAt[i] = -1;
+            switch (op) {
+                case TACInterpreter.MOV_I:
+                    local(LLOAD, intLocal(a));
+                    local(LSTORE, intLocal(r));
+                    break;
+                case TACInterpreter.MOV_D:
+                    local(DLOAD, doubleLocal(a));
+                    local(DSTORE, doubleLocal(r));
+                    break;
+                case TACInterpreter.I2D:
+                    local(LLOAD, intLocal(a));
+                    u1(L2D);
+                    local(DSTORE, doubleLocal(r));
+                    break;
+                case TACInterpreter.JMP:
+                    exitAt[i] = countJump();
+                    branchAt[i] = size;
+                    u1(GOTO);
+                    u2(0);
+                    frame[r / 4] = true;
+                    frame[i + 1] = true;        // goto 之后的指令也要有栈帧
+                    break;
+                default:
+                    if (op <= TACInterpreter.DIV_I) {
+                        local(LLOAD, intLocal(a));
+                        local(LLOAD, intLocal(b));
+                        u1(LONG_OPS[op - TACInterpreter.ADD_I]);
+                        local(LSTORE, intLocal(r));
+                    } else if (op <= TACInterpreter.DIV_D) {
+                        local(DLOAD, doubleLocal(a));
+                        local(DLOAD, doubleLocal(b));
+                        u1(DOUBLE_OPS[op - TACInterpreter.ADD_D]);
+                        local(DSTORE, doubleLocal(r));
+                    } else {
+                        int k;
+                        if (op <= TACInterpreter.IFN_EQ_I) {
+                            k = op - TACInterpreter.IFN_LT_I;
+                            local(LLOAD, intLocal(a));
+                            local(LLOAD, intLocal(b));
+                            u1(LCMP);
+                        } else {
+                            k = op - TACInterpreter.IFN_LT_D;
+                            local(DLOAD, doubleLocal(a));
+                            local(DLOAD, doubleLocal(b));
+                            u1(DOUBLE_CMP[k]);
+                        }
+                        // if 条件 goto 下一条; 计数; goto 目标
+                        int skip = size;
+                        u1(JUMP_IF[k]);
+                        u2(0);
+                        exitAt[i] = countJump();
+                        branchAt[i] = size;
+                        u1(GOTO);
+                        u2(0);
+                        patch(skip, size);
+                        frame[r / 4] = true;
+                        frame[i + 1] = true;
+                    }
+            }
+        }
+        at[n] = bodyEnd = size;
+        frame[n] = true;
+
+        // 结尾: 写回所有槽位，跳转次数没有用完(不小于 0)时返回 true
+        writeBack();
+        local(LLOAD, BUDGET);
+        u1(LCONST_0);
+        u1(LCMP);
+        u1(IFGE);
+        u2(5);
+        u1(ICONST_0);
+        u1(IRETURN);
+        int returnTrue = size;
+        u1(ICONST_1);
+        u1(IRETURN);
+
+        // 异常处理: 异常留在栈中，写回之后重新抛出
+        handler = bodyEnd > bodyStart ? size : -1;
+        if (handler >= 0) {
+            writeBack();
+            u1(ATHROW);
+        }
+        if (size > MAX_CODE) throw new IllegalArgumentException("Program too large for a JVM method: " + size + " bytes");
+
+        // 填入跳转偏移
+        for (int i = 0; i < n; i++) {
+            if (branchAt[i] < 0) continue;
+            patch(branchAt[i], at[rc[4 * i + 3] / 4]);
+            patch(exitAt[i], at[n]);
+        }
+        int frames = 0;
+        int[] offsets = new int[n + 2];
+        for (int i = 0; i <= n; i++) {
+            if (frame[i] && (frames == 0 || offsets[frames - 1] != at[i])) offsets[frames++] = at[i];
+        }
+        offsets[frames++] = returnTrue;
+        return Arrays.copyOf(offsets, frames);
+    }
+
+    // 剩余的跳转次数减一，小于 0 时跳到结尾；返回 iflt 的位置
+    private int countJump() {
+        local(LLOAD, BUDGET);
+        u1(LCONST_1);
+        u1(LSUB);
+        u1(DUP2);
+        local(LSTORE, BUDGET);
+        u1(LCONST_0);
+        u1(LCMP);
+        int exit = size;
+        u1(IFLT);
+        u2(0);
+        return exit;
+    }
+
+    // 位置 from 的跳转指令跳到 to
+    private void patch(int from, int to) {
+        int off = to - from;
+        code[from + 1] = (byte) (off >> 8);
+        code[from + 2] = (byte) off;
+    }
+
+    private void writeBack() {
+        for (int s = 0; s < ints; s++) {
+            u1(ALOAD_1);
+            push(s);
+            local(LLOAD, intLocal(s));
+            u1(LASTORE);
+        }
+        for (int s = 0; s < doubles; s++) {
+            u1(ALOAD_2);
+            push(s);
+            local(DLOAD, doubleLocal(s));
+            u1(DASTORE);
+        }
+    }
+
+    private byte[] classFile() {
+        int[] frames = body();
+        codeSize = size;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61);
+
+            out.writeShort(CP_COUNT);
+            utf8(out, CLASS);                                       // 1
+            classRef(out, 1);                                       // 2
+            utf8(out, "java/lang/Object");                          // 3
+            classRef(out, 3);                                       // 4
+            utf8(out, "com/xiaozhang/TACCompiler$Compiled");        // 5
+            classRef(out, 5);                                       // 6
+            utf8(out, "<init>");                                    // 7
+            utf8(out, "()V");                                       // 8
+            out.writeByte(12);                                      // 9  NameAndType
+            out.writeShort(CP_INIT);
+            out.writeShort(CP_VOID);
+            out.writeByte(10);                                      // 10 Methodref
+            out.writeShort(CP_OBJECT);
+            out.writeShort(9);
+            utf8(out, "run");                                       // 11
+            utf8(out, "([J[DJ)Z");                                  // 12
+            utf8(out, "Code");                                      // 13
+            utf8(out, "StackMapTable");                             // 14
+            utf8(out, "[J");                                        // 15
+            classRef(out, 15);                                      // 16
+            utf8(out, "[D");                                        // 17
+            classRef(out, 17);                                      // 18
+            utf8(out, "java/lang/Throwable");                       // 19
+            classRef(out, 19);                                      // 20
+
+            out.writeShort(0x0030);         // final super
+            out.writeShort(CP_THIS);
+            out.writeShort(CP_OBJECT);
+            out.writeShort(1);
+            out.writeShort(CP_COMPILED);
+            out.writeShort(0);              // 字段
+            out.writeShort(2);              // 方法
+
+            // public <init>() { super(); }
+            out.writeShort(0x0001);
+            out.writeShort(CP_INIT);
+            out.writeShort(CP_VOID);
+            out.writeShort(1);
+            out.writeShort(CP_CODE);
+            out.writeInt(12 + 5);
+            out.writeShort(1);
+            out.writeShort(1);
+            out.writeInt(5);
+            out.writeByte(ALOAD_0);
+            out.writeByte(INVOKESPECIAL);
+            out.writeShort(CP_OBJECT_INIT);
+            out.writeByte(RETURN);
+            out.writeShort(0);
+            out.writeShort(0);
+
+            // public boolean run(long[] ints, double[] doubles, long maxJumps)
+            byte[] stackMap = stackMap(frames);
+            int handlers = handler >= 0 ? 1 : 0;
+            out.writeShort(0x0001);
+            out.writeShort(CP_RUN);
+            out.writeShort(CP_RUN_TYPE);
+            out.writeShort(1);
+            out.writeShort(CP_CODE);
+            out.writeInt(12 + size + 8 * handlers + 6 + stackMap.length);
+            out.writeShort(5);              // 异常 + 数组 + 下标 + long 或 double
+            out.writeShort(5 + 2 * (ints + doubles));
+            out.writeInt(size);
+            out.write(code, 0, size);
+            out.writeShort(handlers);       // 异常表: 程序中的任何异常
+            if (handlers > 0) {
+                out.writeShort(bodyStart);
+                out.writeShort(bodyEnd);
+                out.writeShort(handler);
+                out.writeShort(0);
+            }
+            out.writeShort(1);
+            out.writeShort(CP_STACK_MAP);
+            out.writeInt(stackMap.length);
+            out.write(stackMap);
+
+            out.writeShort(0);              // 类的属性
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 第一个位置写完整的帧，之后的位置与它相同；最后是异常处理代码，栈中有一个异常
+    private byte[] stackMap(int[] offsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(offsets.length + (handler >= 0 ? 1 : 0));
+        out.writeByte(255);                 // full_frame
+        out.writeShort(offsets[0]);
+        out.writeShort(4 + ints + doubles);
+        out.writeByte(7);                   // Object
+        out.writeShort(CP_THIS);
+        out.writeByte(7);
+        out.writeShort(CP_LONG_ARRAY);
+        out.writeByte(7);
+        out.writeShort(CP_DOUBLE_ARRAY);
+        out.writeByte(4);                   // 剩余的跳转次数
+        for (int s = 0; s < ints; s++) out.writeByte(4);        // Long
+        for (int s = 0; s < doubles; s++) out.writeByte(3);     // Double
+        out.writeShort(0);
+        for (int i = 1; i < offsets.length; i++) {
+            out.writeByte(251);             // same_frame_extended
+            out.writeShort(offsets[i] - offsets[i - 1] - 1);
+        }
+        if (handler >= 0) {
+            out.writeByte(247);             // same_locals_1_stack_item_frame_extended
+            out.writeShort(handler - offsets[offsets.length - 1] - 1);
+            out.writeByte(7);
+            out.writeShort(CP_THROWABLE);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String s) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(s);
+    }
+
+    private static void classRef(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+
+    private void push(int v) {
+        if (v <= 5) {
+            u1(ICONST_0 + v);
+        } else if (v <= Byte.MAX_VALUE) {
+            u1(BIPUSH);
+            u1(v);
+        } else {
+            u1(SIPUSH);
+            u2(v);
+        }
+    }
+
+    private void local(int op, int index) {
+        if (index <= 0xFF) {
+            u1(op);
+            u1(index);
+        } else {
+            u1(WIDE);
+            u1(op);
+            u2(index);
+        }
+    }
+
+    private void u1(int b) {
+        if (size == code.length) code = Arrays.copyOf(code, size * 2);
+        code[size++] = (byte) b;
+    }
+
+    private void u2(int v) {
+        u1(v >> 8);
+        u1(v);
+    }
+}
@@ -1,38 +1,231 @@
 package com.xiaozhang;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+// 三地址码(四元式)
+// 每条指令是 (op, arg1, arg2, result)，操作数都是操作数表中的编号，按字段分开存放在 int 数组里
+// 只有打印时才格式化成文本
 public class TACGenerator {
 
-    private List<String> code = new ArrayList<>();
+    // 操作码
+    public enum Op {
+        ASSIGN("="),            // result = arg1
+        ADD("+"), SUB("-"), MUL("*"), DIV("/"),         // result = arg1 op arg2
+        IF_FALSE_LT("<"), IF_FALSE_GT(">"), IF_FALSE_LE("<="),
+        IF_FALSE_GE(">="), IF_FALSE_NE("!="), IF_FALSE_EQ("=="),   // ifFalse arg1 op arg2 goto result
+        GOTO("goto"),           // goto result
+        LABEL(":");             // result:
+
+        final String symbol;
+
+        Op(String symbol) { this.symbol = symbol; }
+
+        boolean isBinary() { return ordinal() >= ADD.ordinal() && ordinal() <= DIV.ordinal(); }
+
+        boolean isIfFalse() { return ordinal() >= IF_FALSE_LT.ordinal() && ordinal() <= IF_FALSE_EQ.ordinal(); }
+
+        // 算术运算符 -> 操作码
+        static Op arithmetic(String op) {
+            switch (op) {
+                case "+": return ADD;
+                case "-": return SUB;
+                case "*": return MUL;
+                case "/": return DIV;
+                default: throw new IllegalArgumentException("Unknown operator " + op);
+            }
+        }
+
+        // 关系运算符 -> 条件为假时跳转的操作码
+        static Op ifFalse(String rel) {
+            switch (rel) {
+                case "<": return IF_FALSE_LT;
+                case ">": return IF_FALSE_GT;
+                case "<=": return IF_FALSE_LE;
+                case ">=": return IF_FALSE_GE;
+                case "!=": return IF_FALSE_NE;
+                case "==": return IF_FALSE_EQ;
+                default: throw new IllegalArgumentException("Unknown relation " + rel);
+            }
+        }
+    }
+
+    private static final Op[] OPS = Op.values();
+
+    public static final int NONE = -1;      // 没有操作数
+
+    // 操作数种类
+    public static final byte VAR = 0, TEMP = 1, CONST = 2, LABEL = 3;
+
+    // 操作数表: 变量和常量按名字去重，临时变量和标号每次新建，名字用到时再拼
+    private byte[] kind = new byte[64];
+    private int[] seq = new int[64];            // 临时变量/标号的序号
+    private String[] name = new String[64];     // 变量/常量的名字
+    private int operandCount = 0;
+    private final Map<String, Integer> vars = new HashMap<>();
+    private final Map<String, Integer> consts = new HashMap<>();
+
     private int tempCount = 0;
     private int labelCount = 0;
 
+    // 操作数是否 double，第一次由 TACInterpreter.inferTypes 推导后记下，优化改写程序时不再改变；生成新程序时清掉
+    private boolean[] types;
+
+    // 分析过程中生成的指令先放在 pending 中，接受时按 Code 的顺序搬到 program
+    private final Quads pending = new Quads();
+    private final Quads program = new Quads();
+
     // 生成新的临时变量
-    public String newTemp() {
-        return "t" + (++tempCount);
+    public int newTemp() {
+        return operand(TEMP, ++tempCount, null);
     }
 
     // 生成新的标号
-    public String newLabel() {
-        return "L" + (++labelCount);
+    public int newLabel() {
+        return operand(LABEL, ++labelCount, null);
+    }
+
+    public int var(String id) {
+        Integer o = vars.get(id);
+        if (o == null) vars.put(id, o = operand(VAR, 0, id));
+        return o;
+    }
+
+    public int constant(String text) {
+        Integer o = consts.get(text);
+        if (o == null) consts.put(text, o = operand(CONST, 0, text));
+        return o;
+    }
+
+    private int operand(byte k, int n, String s) {
+        if (operandCount == kind.length) {
+            int cap = operandCount * 2;
+            kind = Arrays.copyOf(kind, cap);
+            seq = Arrays.copyOf(seq, cap);
+            name = Arrays.copyOf(name, cap);
+        }
+        kind[operandCount] = k;
+        seq[operandCount] = n;
+        name[operandCount] = s;
+        return operandCount++;
+    }
+
+    public int operandCount() { return operandCount; }
+
+    public byte kind(int operand) { return kind[operand]; }
+
+    public String operandName(int operand) {
+        switch (kind[operand]) {
+            case TEMP: return "t" + seq[operand];
+            case LABEL: return "L" + seq[operand];
+            default: return name[operand];
+        }
+    }
+
+    // 新建一条指令，返回它在 pending 中的编号，之后用 Code 决定它在程序中的位置
+    int quad(Op op, int arg1, int arg2, int result) {
+        return pending.add(op, arg1, arg2, result);
     }
 
-    // 生成一条三地址码
-    public void emit(String s) {
-        code.add(s);
+    // 把一段代码按顺序追加到程序末尾
+    void emit(Code code) {
+        types = null;
+        append(code);
+        pending.size = 0;
+    }
+
+    // 用一段代码重新生成整个程序，保留 pending 中的指令，供增量分析复用未改动的部分
+    void relink(Code code) {
+        types = null;
+        program.size = 0;
+        append(code);
+    }
+
+    private void append(Code code) {
+        code.forEach(q -> program.add(OPS[pending.op[q]], pending.arg1[q], pending.arg2[q], pending.result[q]));
+    }
+
+    // 用优化后的指令替换整个程序
+    void replaceProgram(Op[] ops, int[] arg1, int[] arg2, int[] result, int n) {
+        program.size = 0;
+        for (int i = 0; i < n; i++) program.add(ops[i], arg1[i], arg2[i], result[i]);
+    }
+
+    boolean[] types() { return types; }
+
+    void setTypes(boolean[] types) { this.types = types; }
+
+    // 临时变量分配把寄存器的类型记到它使用的名字上
+    void setDouble(int operand, boolean isDouble) { types[operand] = isDouble; }
+
+    // 已生成(包括不再使用)的指令条数
+    int pendingSize() { return pending.size; }
+
+    public int size() { return program.size; }
+
+    public Op op(int i) { return OPS[program.op[i]]; }
+
+    public int arg1(int i) { return program.arg1[i]; }
+
+    public int arg2(int i) { return program.arg2[i]; }
+
+    public int result(int i) { return program.result[i]; }
+
+    // 第 i 条指令的文本形式
+    public String format(int i) {
+        Op op = op(i);
+        int a = program.arg1[i], b = program.arg2[i], r = program.result[i];
+        if (op == Op.ASSIGN) return operandName(r) + " = " + operandName(a);
+        if (op.isBinary()) return operandName(r) + " = " + operandName(a) + " " + op.symbol + " " + operandName(b);
+        if (op.isIfFalse())
+            return "ifFalse " + operandName(a) + " " + op.symbol + " " + operandName(b) + " goto " + operandName(r);
+        if (op == Op.GOTO) return "goto " + operandName(r);
+        return operandName(r) + ":";
     }
 
-    // 获取所有三地址码
+    // 获取所有三地址码，每条在访问时才格式化
     public List<String> getCode() {
-        return code;
+        return new AbstractList<String>() {
+            public String get(int i) {
+                if (i < 0 || i >= program.size) throw new IndexOutOfBoundsException(i);
+                return format(i);
+            }
+
+            public int size() { return program.size; }
+        };
     }
 
     // 输出三地址码
     public void print() {
-        for (String s : code) {
-            System.out.println(s);
+        for (int i = 0; i < program.size; i++) {
+            System.out.println(format(i));
+        }
+    }
+
+    // 按字段分开存放的指令序列
+    private static class Quads {
+        byte[] op = new byte[64];
+        int[] arg1 = new int[64];
+        int[] arg2 = new int[64];
+        int[] result = new int[64];
+        int size;
+
+        int add(Op o, int a, int b, int r) {
+            if (size == op.length) {
+                int cap = size * 2;
+                op = Arrays.copyOf(op, cap);
+                arg1 = Arrays.copyOf(arg1, cap);
+                arg2 = Arrays.copyOf(arg2, cap);
+                result = Arrays.copyOf(result, cap);
+            }
+            op[size] = (byte) o.ordinal();
+            arg1[size] = a;
+            arg2[size] = b;
+            result[size] = r;
+            return size++;
         }
     }
 }
@@ -0,0 +1,259 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// 三地址码解释器
+// 先把 TACGenerator 中的程序翻译成定长的寄存器机指令 (op, a, b, r)，都放在一个 int[] 里:
+// - 变量、临时变量和常量都分配到帧中的槽位，整数放 long[]，浮点数放 double[]；常量在新建帧时预先填好
+// - 每个操作数的类型在翻译时推导: 浮点常量是 double，被赋过 double 值的变量/临时变量是 double，其余是整数
+//   类型是整个程序的，不随执行变化: 程序中任何一处(包括之后才执行、或者执行不到的地方)给变量赋 double 值，它从头到尾都是 double，
+//   赋给它的整数先转换成 double，所以 x = 7; y = x / 2; x = 0.5; 中 y 是 3.5；优化(TACOptimizer 等)按同样的类型改写程序
+// - 标号换成指令下标，指令按操作数类型分开，运行时不查任何表、不做类型判断
+// 整数运算是 64 位的，除以 0 抛出 ArithmeticException；变量的初值为 0
+public class TACInterpreter {
+
+    // 指令
+    static final int MOV_I = 0, MOV_D = 1, I2D = 2;
+    static final int ADD_I = 3, SUB_I = 4, MUL_I = 5, DIV_I = 6;
+    static final int ADD_D = 7, SUB_D = 8, MUL_D = 9, DIV_D = 10;
+    static final int JMP = 11;
+    // 条件不成立时跳转，顺序与 TACGenerator.Op 中的 IF_FALSE_* 相同
+    static final int IFN_LT_I = 12, IFN_GT_I = 13, IFN_LE_I = 14, IFN_GE_I = 15, IFN_NE_I = 16, IFN_EQ_I = 17;
+    static final int IFN_LT_D = 18, IFN_GT_D = 19, IFN_LE_D = 20, IFN_GE_D = 21, IFN_NE_D = 22, IFN_EQ_D = 23;
+
+    private static final int NONE = TACGenerator.NONE;
+
+    final int[] code;                       // 每条指令 4 个 int
+    final long[] intInit;                   // 帧的初值(常量)
+    final double[] doubleInit;
+    private final Map<String, Integer> vars = new HashMap<>();     // 变量名 -> 槽位，double 槽位记为 -(槽位+1)
+
+    // 翻译时用到的状态
+    private int[] ops = new int[64];
+    private int size;
+    private int intSlots, doubleSlots;
+
+    public TACInterpreter(TACGenerator g) {
+        int operands = g.operandCount();
+        boolean[] isDouble = inferTypes(g);
+
+        // 分配槽位，常量记下初值；程序中不再出现的临时变量和常量(被优化掉的)不占槽位
+        boolean[] used = new boolean[operands];
+        for (int i = 0; i < g.size(); i++) {
+            if (g.arg1(i) != NONE) used[g.arg1(i)] = true;
+            if (g.arg2(i) != NONE) used[g.arg2(i)] = true;
+            if (g.result(i) != NONE) used[g.result(i)] = true;
+        }
+        int[] slot = new int[operands];
+        Arrays.fill(slot, NONE);
+        long[] ints = new long[16];
+        double[] doubles = new double[16];
+        for (int o = 0; o < operands; o++) {
+            byte k = g.kind(o);
+            if (k == TACGenerator.LABEL || (k != TACGenerator.VAR && !used[o])) continue;
+            if (isDouble[o]) {
+                slot[o] = doubleSlots++;
+                if (doubles.length < doubleSlots) doubles = Arrays.copyOf(doubles, doubleSlots * 2);
+                if (k == TACGenerator.CONST) doubles[slot[o]] = Double.parseDouble(g.operandName(o));
+            } else {
+                slot[o] = intSlots++;
+                if (ints.length < intSlots) ints = Arrays.copyOf(ints, intSlots * 2);
+                if (k == TACGenerator.CONST) ints[slot[o]] = Long.parseLong(g.operandName(o));
+            }
+            if (k == TACGenerator.VAR) vars.put(g.operandName(o), isDouble[o] ? -(slot[o] + 1) : slot[o]);
+        }
+        // 整数参与浮点运算时先转换到这两个临时槽位；整数运算的结果要存入 double 变量时用 scratchInt
+        int scratchD1 = doubleSlots++, scratchD2 = doubleSlots++, scratchInt = intSlots++;
+
+        int[] labelAt = new int[operands];
+        Arrays.fill(labelAt, NONE);
+        for (int i = 0; i < g.size(); i++) {
+            TACGenerator.Op op = g.op(i);
+            int a = g.arg1(i), b = g.arg2(i), r = g.result(i);
+            switch (op) {
+                case LABEL:
+                    labelAt[r] = size;
+                    break;
+                case GOTO:
+                    emit(JMP, 0, 0, r);         // 目标先记标号，最后统一换成指令下标
+                    break;
+                case ASSIGN:
+                    if (!isDouble[r]) emit(MOV_I, slot[a], 0, slot[r]);
+                    else if (isDouble[a]) emit(MOV_D, slot[a], 0, slot[r]);
+                    else emit(I2D, slot[a], 0, slot[r]);
+                    break;
+                case ADD: case SUB: case MUL: case DIV: {
+                    int k = op.ordinal() - TACGenerator.Op.ADD.ordinal();
+                    if (!isDouble[a] && !isDouble[b]) {
+                        // 整数运算，结果是 double 变量时再转换
+                        if (isDouble[r]) {
+                            emit(ADD_I + k, slot[a], slot[b], scratchInt);
+                            emit(I2D, scratchInt, 0, slot[r]);
+                        } else {
+                            emit(ADD_I + k, slot[a], slot[b], slot[r]);
+                        }
+                    } else {
+                        emit(ADD_D + k, toDouble(isDouble, slot, a, scratchD1), toDouble(isDouble, slot, b, scratchD2), slot[r]);
+                    }
+                    break;
+                }
+                default: {
+                    int k = op.ordinal() - TACGenerator.Op.IF_FALSE_LT.ordinal();
+                    if (!isDouble[a] && !isDouble[b]) emit(IFN_LT_I + k, slot[a], slot[b], r);
+                    else emit(IFN_LT_D + k, toDouble(isDouble, slot, a, scratchD1), toDouble(isDouble, slot, b, scratchD2), r);
+                }
+            }
+        }
+        // 跳转目标: 标号 -> 指令下标(以 int 计)
+        for (int pc = 0; pc < size; pc += 4) {
+            int o = ops[pc];
+            if (o == JMP || o >= IFN_LT_I) ops[pc + 3] = labelAt[ops[pc + 3]];
+        }
+        code = Arrays.copyOf(ops, size);
+        intInit = Arrays.copyOf(ints, intSlots);
+        doubleInit = Arrays.copyOf(doubles, doubleSlots);
+        ops = null;
+    }
+
+    // 操作数的类型: 浮点常量是 double，赋值时取右边所有操作数类型的"最大值"，直到不再变化
+    // 不看执行顺序和是否可达，每个变量在整个程序中只有一个类型(见类的说明)
+    // 第一次推导的结果记在 g 中，优化改写之后程序推导出的类型可能不同(比如复写传播断开了 double 值的来源)，仍按记下的类型；
+    // 优化新建的操作数(折叠出的常量、循环倒置复制条件时的临时变量)不在其中，只推导它们
+    static boolean[] inferTypes(TACGenerator g) {
+        boolean[] fixed = g.types();
+        int from = fixed == null ? 0 : fixed.length;
+        boolean[] d = new boolean[g.operandCount()];
+        if (fixed != null) System.arraycopy(fixed, 0, d, 0, from);
+        if (from == d.length) return d;
+        for (int o = from; o < d.length; o++) {
+            if (g.kind(o) == TACGenerator.CONST) d[o] = isFloatLiteral(g.operandName(o));
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < g.size(); i++) {
+                TACGenerator.Op op = g.op(i);
+                if (op != TACGenerator.Op.ASSIGN && !op.isBinary()) continue;
+                int r = g.result(i);
+                boolean v = d[g.arg1(i)] || (op.isBinary() && d[g.arg2(i)]);
+                if (v && !d[r] && r >= from) {
+                    d[r] = true;
+                    changed = true;
+                }
+            }
+        }
+        g.setTypes(d.clone());
+        return d;
+    }
+
+    private static boolean isFloatLiteral(String s) {
+        if (s.indexOf('.') >= 0) return true;
+        try {
+            Long.parseLong(s);
+            return false;
+        } catch (NumberFormatException e) {
+            return true;        // 超出 long 范围的整数按浮点数处理
+        }
+    }
+
+    // 整数操作数先转换到 scratch 中
+    private int toDouble(boolean[] isDouble, int[] slot, int operand, int scratch) {
+        if (isDouble[operand]) return slot[operand];
+        emit(I2D, slot[operand], 0, scratch);
+        return scratch;
+    }
+
+    private void emit(int op, int a, int b, int r) {
+        if (size + 4 > ops.length) ops = Arrays.copyOf(ops, ops.length * 2);
+        ops[size++] = op;
+        ops[size++] = a;
+        ops[size++] = b;
+        ops[size++] = r;
+    }
+
+    // 指令条数
+    public int size() { return code.length / 4; }
+
+    // 帧中的槽位数
+    public int slots() { return intInit.length + doubleInit.length; }
+
+    // 新建一个帧，常量已经填好，变量为 0
+    public Frame newFrame() {
+        return new Frame(intInit.clone(), doubleInit.clone());
+    }
+
+    public Frame run() {
+        Frame f = newFrame();
+        run(f, Long.MAX_VALUE);
+        return f;
+    }
+
+    // 在帧 f 上执行，最多跳转 maxJumps 次；正常结束返回 true，跳转次数用完返回 false
+    public boolean run(Frame f, long maxJumps) {
+        final int[] c = code;
+        final long[] I = f.ints;
+        final double[] D = f.doubles;
+        final int end = c.length;
+        long budget = maxJumps;
+        int pc = 0;
+        while (pc < end) {
+            switch (c[pc]) {
+                case MOV_I: I[c[pc + 3]] = I[c[pc + 1]]; pc += 4; break;
+                case MOV_D: D[c[pc + 3]] = D[c[pc + 1]]; pc += 4; break;
+                case I2D: D[c[pc + 3]] = I[c[pc + 1]]; pc += 4; break;
+                case ADD_I: I[c[pc + 3]] = I[c[pc + 1]] + I[c[pc + 2]]; pc += 4; break;
+                case SUB_I: I[c[pc + 3]] = I[c[pc + 1]] - I[c[pc + 2]]; pc += 4; break;
+                case MUL_I: I[c[pc + 3]] = I[c[pc + 1]] * I[c[pc + 2]]; pc += 4; break;
+                case DIV_I: I[c[pc + 3]] = I[c[pc + 1]] / I[c[pc + 2]]; pc += 4; break;
+                case ADD_D: D[c[pc + 3]] = D[c[pc + 1]] + D[c[pc + 2]]; pc += 4; break;
+                case SUB_D: D[c[pc + 3]] = D[c[pc + 1]] - D[c[pc + 2]]; pc += 4; break;
+                case MUL_D: D[c[pc + 3]] = D[c[pc + 1]] * D[c[pc + 2]]; pc += 4; break;
+                case DIV_D: D[c[pc + 3]] = D[c[pc + 1]] / D[c[pc + 2]]; pc += 4; break;
+                case JMP:
+                    if (--budget < 0) return false;
+                    pc = c[pc + 3];
+                    break;
+                case IFN_LT_I: if (I[c[pc + 1]] < I[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_GT_I: if (I[c[pc + 1]] > I[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_LE_I: if (I[c[pc + 1]] <= I[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_GE_I: if (I[c[pc + 1]] >= I[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_NE_I: if (I[c[pc + 1]] != I[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_EQ_I: if (I[c[pc + 1]] == I[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_LT_D: if (D[c[pc + 1]] < D[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_GT_D: if (D[c[pc + 1]] > D[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_LE_D: if (D[c[pc + 1]] <= D[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_GE_D: if (D[c[pc + 1]] >= D[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                case IFN_NE_D: if (D[c[pc + 1]] != D[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+                default: if (D[c[pc + 1]] == D[c[pc + 2]]) { pc += 4; break; } if (--budget < 0) return false; pc = c[pc + 3]; break;
+            }
+        }
+        return true;
+    }
+
+    // 变量的值，整数返回 Long，浮点数返回 Double，没有这个变量时返回 null
+    public Number get(Frame f, String var) {
+        Integer s = vars.get(var);
+        if (s == null) return null;
+        return s >= 0 ? (Number) f.ints[s] : (Number) f.doubles[-s - 1];
+    }
+
+    // 全部变量的值，按名字排序
+    public Map<String, Number> variables(Frame f) {
+        Map<String, Number> m = new java.util.TreeMap<>();
+        for (String v : vars.keySet()) m.put(v, get(f, v));
+        return m;
+    }
+
+    // 一次执行的槽位
+    public static final class Frame {
+        final long[] ints;
+        final double[] doubles;
+
+        Frame(long[] ints, double[] doubles) {
+            this.ints = ints;
+            this.doubles = doubles;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// 三地址码的局部优化，直接改写 TACGenerator 中的程序
+// 1. 在标号和跳转处切分基本块
+// 2. 块内值编号: 常量折叠和传播、公共子表达式、复写传播，条件跳转的两边都是常量时改成 goto 或删掉
+// 3. 删除没有使用的临时变量(临时变量只赋值一次，没有任何使用就是死的)；倒着扫一遍，只被死赋值用到的临时变量也一起删掉
+// 4. t = x op y; v = t 且 t 只用这一次时合并成 v = x op y
+// 只折叠整数常量(可选的负号加十进制数字，不含前导 0)，浮点数和溢出的结果保持原样
+// 值编号区分类型(TACInterpreter.inferTypes): 每个值是整数或 double，保存它的操作数和它的类型相同；
+// 把整数赋给 double 变量是一次转换，得到新的值，所以只会用同类型的操作数替换，double 变量中的整数也不会被折叠
+public class TACOptimizer {
+
+    private static final int NONE = TACGenerator.NONE;
+
+    private TACGenerator g;
+
+    // 正在改写的程序
+    private TACGenerator.Op[] op;
+    private int[] arg1, arg2, result;
+    private int n;
+
+    // 值编号: 操作数 -> 当前的值编号，stamp 不等于当前块号的表项视为没有
+    private int[] vnOf = new int[0];
+    private int[] vnStamp = new int[0];
+    private int block;
+    private int vnCount;
+    private int[] vnConst = new int[16];        // 值编号 -> 常量操作数，不是常量为 NONE
+    private boolean[] vnDouble = new boolean[16];   // 值编号 -> 是否 double
+    private int[][] holders = new int[16][];    // 值编号 -> 曾经保存过这个值的变量/临时变量
+    private int[] holderCount = new int[16];
+    private final Map<Long, Integer> exprs = new HashMap<>();  // (op, 值编号, 值编号) -> 结果的值编号
+    private boolean[] types;                    // 操作数 -> 是否 double
+
+    // 统计
+    private int before, after, folded, reused, propagated, deadTemps, merged;
+
+    public TACOptimizer optimize(TACGenerator g) {
+        this.g = g;
+        types = TACInterpreter.inferTypes(g);
+        n = g.size();
+        before = n;
+        op = new TACGenerator.Op[n];
+        arg1 = new int[n];
+        arg2 = new int[n];
+        result = new int[n];
+        for (int i = 0; i < n; i++) {
+            op[i] = g.op(i);
+            arg1[i] = g.arg1(i);
+            arg2[i] = g.arg2(i);
+            result[i] = g.result(i);
+        }
+
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            boolean endsBlock = op[i] == TACGenerator.Op.GOTO || op[i].isIfFalse();
+            boolean nextIsLabel = i + 1 < n && op[i + 1] == TACGenerator.Op.LABEL;
+            if (endsBlock || nextIsLabel || i + 1 == n) {
+                numberBlock(start, i + 1);
+                start = i + 1;
+            }
+        }
+        compact();
+        int dead = removeDeadTemps(g, op, arg1, arg2, result, n);
+        deadTemps += dead;
+        if (dead > 0) compact();
+        mergeCopies();
+
+        after = n;
+        g.replaceProgram(op, arg1, arg2, result, n);
+        return this;
+    }
+
+    // ---------------- 值编号 ----------------
+
+    private void numberBlock(int from, int to) {
+        block++;
+        vnCount = 0;
+        exprs.clear();
+        for (int i = from; i < to; i++) {
+            TACGenerator.Op o = op[i];
+            if (o == TACGenerator.Op.ASSIGN) {
+                int v = valueOf(arg1[i]);
+                if (holds(result[i], v)) {
+                    // x = x 或者 x 已经是这个值
+                    propagated++;
+                    op[i] = null;
+                    continue;
+                }
+                int c = canonical(v);
+                if (c != arg1[i]) propagated++;
+                arg1[i] = c;
+                define(result[i], v);
+            } else if (o.isBinary()) {
+                int va = valueOf(arg1[i]), vb = valueOf(arg2[i]);
+                // 结果是 double 时不折叠: 整数运算的结果要先转换，r = 常量 会让 r 保存一个整数值
+                int k = isDouble(result[i]) ? NONE : fold(o, vnConst[va], vnConst[vb]);
+                if (k != NONE) {
+                    // 两边都是整数常量: r = 常量
+                    folded++;
+                    toAssign(i, k);
+                    assign(result[i], valueOf(k));
+                    continue;
+                }
+                if (commutative(o) && va > vb) {
+                    int t = va; va = vb; vb = t;
+                }
+                long key = ((long) o.ordinal() << 58) | ((long) va << 29) | vb;
+                Integer known = exprs.get(key);
+                int h = known != null ? canonical(known) : NONE;
+                if (h != NONE) {
+                    // 已经算过并且还有变量保存着这个值
+                    reused++;
+                    if (holds(result[i], known)) {
+                        op[i] = null;
+                        continue;
+                    }
+                    toAssign(i, h);
+                    define(result[i], known);
+                    continue;
+                }
+                int a = canonical(valueOf(arg1[i])), b = canonical(valueOf(arg2[i]));
+                if (a != arg1[i]) propagated++;
+                if (b != arg2[i]) propagated++;
+                arg1[i] = a;
+                arg2[i] = b;
+                int v = newValue(NONE, vnDouble[va] || vnDouble[vb]);
+                exprs.put(key, v);
+                define(result[i], v);
+            } else if (o.isIfFalse()) {
+                int va = valueOf(arg1[i]), vb = valueOf(arg2[i]);
+                int cond = compare(o, vnConst[va], vnConst[vb]);
+                if (cond == 1) {
+                    // 条件恒真，不会跳转
+                    folded++;
+                    op[i] = null;
+                } else if (cond == 0) {
+                    folded++;
+                    op[i] = TACGenerator.Op.GOTO;
+                    arg1[i] = arg2[i] = NONE;
+                } else {
+                    int a = canonical(va), b = canonical(vb);
+                    if (a != arg1[i]) propagated++;
+                    if (b != arg2[i]) propagated++;
+                    arg1[i] = a;
+                    arg2[i] = b;
+                }
+            }
+        }
+    }
+
+    private void toAssign(int i, int src) {
+        op[i] = TACGenerator.Op.ASSIGN;
+        arg1[i] = src;
+        arg2[i] = NONE;
+    }
+
+    private static boolean commutative(TACGenerator.Op o) {
+        return o == TACGenerator.Op.ADD || o == TACGenerator.Op.MUL;
+    }
+
+    // 操作数当前的值编号，块内第一次见到时新建
+    private int valueOf(int operand) {
+        ensureOperand(operand);
+        if (vnStamp[operand] == block) return vnOf[operand];
+        int v = newValue(g.kind(operand) == TACGenerator.CONST ? operand : NONE, isDouble(operand));
+        vnStamp[operand] = block;
+        vnOf[operand] = v;
+        if (g.kind(operand) != TACGenerator.CONST) addHolder(v, operand);
+        return v;
+    }
+
+    private boolean holds(int operand, int v) {
+        return operand < vnOf.length && vnStamp[operand] == block && vnOf[operand] == v;
+    }
+
+    // operand = 值 v；类型不同时是一次转换，operand 得到一个新的值
+    private void define(int operand, int v) {
+        assign(operand, isDouble(operand) == vnDouble[v] ? v : newValue(NONE, isDouble(operand)));
+    }
+
+    private void assign(int operand, int v) {
+        ensureOperand(operand);
+        vnStamp[operand] = block;
+        vnOf[operand] = v;
+        addHolder(v, operand);
+    }
+
+    // 保存值 v 的操作数: 常量优先，其次变量，最后是临时变量；都被改写过时返回 NONE
+    private int canonical(int v) {
+        if (vnConst[v] != NONE) return vnConst[v];
+        int temp = NONE;
+        for (int i = 0; i < holderCount[v]; i++) {
+            int h = holders[v][i];
+            if (vnStamp[h] != block || vnOf[h] != v) continue;
+            if (g.kind(h) == TACGenerator.VAR) return h;
+            if (temp == NONE) temp = h;
+        }
+        return temp;
+    }
+
+    private int newValue(int constOperand, boolean dbl) {
+        if (vnCount == vnConst.length) {
+            int cap = vnCount * 2;
+            vnConst = Arrays.copyOf(vnConst, cap);
+            vnDouble = Arrays.copyOf(vnDouble, cap);
+            holders = Arrays.copyOf(holders, cap);
+            holderCount = Arrays.copyOf(holderCount, cap);
+        }
+        vnConst[vnCount] = constOperand;
+        vnDouble[vnCount] = dbl;
+        holderCount[vnCount] = 0;
+        return vnCount++;
+    }
+
+    private void addHolder(int v, int operand) {
+        int[] hs = holders[v];
+        if (hs == null) holders[v] = hs = new int[4];
+        else if (holderCount[v] == hs.length) holders[v] = hs = Arrays.copyOf(hs, hs.length * 2);
+        hs[holderCount[v]++] = operand;
+    }
+
+    // 折叠时新建的常量不在 types 中，都是整数
+    private boolean isDouble(int operand) {
+        return operand < types.length && types[operand];
+    }
+
+    private void ensureOperand(int operand) {
+        if (operand >= vnOf.length) {
+            int cap = Math.max(operand + 1, g.operandCount() + 16);
+            vnOf = Arrays.copyOf(vnOf, cap);
+            vnStamp = Arrays.copyOf(vnStamp, cap);
+        }
+    }
+
+    // ---------------- 常量 ----------------
+
+    // 整数常量的值；不是整数常量时返回 null
+    private Long intValue(int operand) {
+        if (operand == NONE || g.kind(operand) != TACGenerator.CONST) return null;
+        String s = g.operandName(operand);
+        int i = s.startsWith("-") ? 1 : 0;
+        if (i == s.length() || s.length() - i > 18) return null;
+        if (s.charAt(i) == '0' && s.length() - i > 1) return null;
+        for (int j = i; j < s.length(); j++) {
+            char c = s.charAt(j);
+            if (c < '0' || c > '9') return null;
+        }
+        return Long.parseLong(s);
+    }
+
+    // 两个常量做运算，得到结果常量的操作数；不能折叠时返回 NONE
+    private int fold(TACGenerator.Op o, int a, int b) {
+        Long x = intValue(a), y = intValue(b);
+        if (x == null || y == null) return NONE;
+        long r;
+        try {
+            switch (o) {
+                case ADD: r = Math.addExact(x, y); break;
+                case SUB: r = Math.subtractExact(x, y); break;
+                case MUL: r = Math.multiplyExact(x, y); break;
+                default:
+                    if (y == 0 || (x == Long.MIN_VALUE && y == -1)) return NONE;
+                    r = x / y;
+            }
+        } catch (ArithmeticException e) {
+            return NONE;
+        }
+        return g.constant(Long.toString(r));
+    }
+
+    // 条件 a rel b 的值: 1 为真，0 为假，-1 表示不是常量
+    private int compare(TACGenerator.Op o, int a, int b) {
+        Long x = intValue(a), y = intValue(b);
+        if (x == null || y == null) return -1;
+        int c = Long.compare(x, y);
+        boolean t;
+        switch (o) {
+            case IF_FALSE_LT: t = c < 0; break;
+            case IF_FALSE_GT: t = c > 0; break;
+            case IF_FALSE_LE: t = c <= 0; break;
+            case IF_FALSE_GE: t = c >= 0; break;
+            case IF_FALSE_NE: t = c != 0; break;
+            default: t = c == 0;
+        }
+        return t ? 1 : 0;
+    }
+
+    // ---------------- 死临时变量 ----------------
+
+    // 把程序前 n 条指令中对死临时变量的赋值改成 null，返回删除的条数；TempAllocator 也用它
+    static int removeDeadTemps(TACGenerator g, TACGenerator.Op[] op, int[] arg1, int[] arg2, int[] result, int n) {
+        int[] uses = new int[g.operandCount()];
+        for (int i = 0; i < n; i++) {
+            if (arg1[i] != NONE) uses[arg1[i]]++;
+            if (arg2[i] != NONE) uses[arg2[i]]++;
+        }
+        // 倒着扫一遍就够了: 一条指令只会用到它前面定义的临时变量
+        int dead = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            TACGenerator.Op o = op[i];
+            if (o != TACGenerator.Op.ASSIGN && !o.isBinary()) continue;
+            int r = result[i];
+            if (g.kind(r) != TACGenerator.TEMP || uses[r] > 0) continue;
+            if (arg1[i] != NONE) uses[arg1[i]]--;
+            if (arg2[i] != NONE) uses[arg2[i]]--;
+            op[i] = null;
+            dead++;
+        }
+        return dead;
+    }
+
+    // t = x op y; v = t 合并，t 在别处没有使用
+    private void mergeCopies() {
+        int[] uses = new int[g.operandCount()];
+        for (int i = 0; i < n; i++) {
+            if (arg1[i] != NONE) uses[arg1[i]]++;
+            if (arg2[i] != NONE) uses[arg2[i]]++;
+        }
+        boolean changed = false;
+        for (int i = 0; i + 1 < n; i++) {
+            if (op[i] == null || (!op[i].isBinary() && op[i] != TACGenerator.Op.ASSIGN)) continue;
+            int t = result[i];
+            if (g.kind(t) != TACGenerator.TEMP || uses[t] != 1) continue;
+            if (op[i + 1] != TACGenerator.Op.ASSIGN || arg1[i + 1] != t) continue;
+            result[i] = result[i + 1];
+            op[i + 1] = null;
+            merged++;
+            changed = true;
+            i++;
+        }
+        if (changed) compact();
+    }
+
+    // 去掉被删除(op 为 null)的指令
+    private void compact() {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (op[i] == null) continue;
+            op[k] = op[i];
+            arg1[k] = arg1[i];
+            arg2[k] = arg2[i];
+            result[k] = result[i];
+            k++;
+        }
+        n = k;
+    }
+
+    public int before() { return before; }
+
+    public int after() { return after; }
+
+    public int folded() { return folded; }
+
+    public int reused() { return reused; }
+
+    public int propagated() { return propagated; }
+
+    public int deadTemps() { return deadTemps; }
+
+    public int merged() { return merged; }
+
+    @Override
+    public String toString() {
+        return "instructions " + before + " -> " + after + " (folded " + folded + ", reused " + reused
+                + ", propagated " + propagated + ", dead temps " + deadTemps + ", merged " + merged + ")";
+    }
+}
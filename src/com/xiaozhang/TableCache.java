@@ -0,0 +1,134 @@
+package com.xiaozhang;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+// 分析表的二进制缓存文件
+// 文件头: magic, version, 文法指纹, 数据长度, 数据的 CRC32；之后是符号表和各个 int 数组
+// 读取时把整个文件读入内存再解出各个数组(ParseTables 用 int[]，映射文件也要逐个复制，不比直接读快)
+// 指纹不一致、长度不对或校验失败都视为未命中
+public class TableCache {
+
+    private static final int MAGIC = 0x424C594C;    // "BLYL"
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 8 + 4 + 4;
+
+    // 读取缓存，不存在或失效时返回 null
+    public static ParseTables load(Path file, long fingerprint) {
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+            int size = buf.remaining();
+            if (size < HEADER) return null;
+
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            if (buf.getLong() != fingerprint) return null;
+            int len = buf.getInt();
+            int crc = buf.getInt();
+            if (len != size - HEADER) return null;     // 文件被截断
+            ByteBuffer data = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 c = new CRC32();
+            c.update(data.duplicate());
+            if ((int) c.getValue() != crc) return null;
+
+            String[] terminals = readStrings(data);
+            String[] nonterminals = readStrings(data);
+            int stateCount = data.getInt();
+            int[] actBase = readInts(data);
+            int[] actDefault = readInts(data);
+            int[] actCheck = readInts(data);
+            int[] actValue = readInts(data);
+            int[] gotoBase = readInts(data);
+            int[] gotoCheck = readInts(data);
+            int[] gotoValue = readInts(data);
+            int[] prodLhs = readInts(data);
+            int[] prodLen = readInts(data);
+            if (data.hasRemaining() || actBase.length != stateCount || gotoBase.length != stateCount) return null;
+            return new ParseTables(terminals, nonterminals, stateCount,
+                    actBase, actDefault, actCheck, actValue,
+                    gotoBase, gotoCheck, gotoValue, prodLhs, prodLen);
+        } catch (IOException | RuntimeException e) {
+            // 内容损坏(长度字段越界等)同样按未命中处理，由调用方重新构造
+            return null;
+        }
+    }
+
+    // 写入缓存，先写临时文件再原子替换，避免其他进程读到写了一半的文件
+    public static void save(Path file, long fingerprint, ParseTables t) throws IOException {
+        int size = 4;
+        size += stringsSize(t.terminals) + stringsSize(t.nonterminals);
+        int[][] arrays = {t.actBase, t.actDefault, t.actCheck, t.actValue,
+                t.gotoBase, t.gotoCheck, t.gotoValue, t.prodLhs, t.prodLen};
+        for (int[] a : arrays) size += 4 + 4 * a.length;
+
+        ByteBuffer data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        writeStrings(data, t.terminals);
+        writeStrings(data, t.nonterminals);
+        data.putInt(t.stateCount);
+        for (int[] a : arrays) {
+            data.putInt(a.length);
+            data.asIntBuffer().put(a);
+            data.position(data.position() + 4 * a.length);
+        }
+        data.flip();
+
+        CRC32 c = new CRC32();
+        c.update(data.duplicate());
+        ByteBuffer head = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(MAGIC).putInt(VERSION).putLong(fingerprint)
+                .putInt(data.remaining()).putInt((int) c.getValue());
+        head.flip();
+
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (head.hasRemaining()) ch.write(head);
+                while (data.hasRemaining()) ch.write(data);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static int stringsSize(String[] ss) {
+        int n = 4;
+        for (String s : ss) n += 4 + s.getBytes(StandardCharsets.UTF_8).length;
+        return n;
+    }
+
+    private static void writeStrings(ByteBuffer b, String[] ss) {
+        b.putInt(ss.length);
+        for (String s : ss) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            b.putInt(bytes.length);
+            b.put(bytes);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer b) {
+        String[] ss = new String[b.getInt()];
+        for (int i = 0; i < ss.length; i++) {
+            byte[] bytes = new byte[b.getInt()];
+            b.get(bytes);
+            ss[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return ss;
+    }
+
+    private static int[] readInts(ByteBuffer b) {
+        int[] a = new int[b.getInt()];
+        IntBuffer ib = b.asIntBuffer();
+        ib.get(a);
+        b.position(b.position() + 4 * a.length);
+        return a;
+    }
+}
@@ -0,0 +1,161 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+
+// 临时变量分配: 把生成代码时每个表达式一个的临时变量映射到少量可以重复使用的临时变量(寄存器)上
+// 1. 删除没有被读过的临时变量的赋值(TACOptimizer.removeDeadTemps)
+// 2. 活跃区间: 只在一个基本块内出现、且第一次出现是赋值的临时变量，区间是它第一次赋值到最后一次出现；
+//    其余的临时变量(跨块使用，或先读后写)整个程序都活跃，各占一个寄存器
+// 3. 线性扫描: 按指令顺序，区间开始时从空闲寄存器中取一个，区间结束后放回；同一条指令先读后写，结果可以用刚释放的寄存器
+// 整数和浮点数的临时变量分开分配，同一个寄存器不会先后存放两种类型的值；寄存器的类型记到它使用的名字上(TACGenerator.setDouble)
+// 寄存器依次使用 t1, t2, ...；分配之后临时变量会被多次赋值，应当在其他优化之后进行
+public class TempAllocator {
+
+    private static final int NONE = TACGenerator.NONE;
+
+    private TACGenerator g;
+    private TACGenerator.Op[] op;
+    private int[] arg1, arg2, result;
+    private int n;
+
+    // 统计
+    private int before, after, dead, global;
+
+    public TempAllocator allocate(TACGenerator g) {
+        this.g = g;
+        n = g.size();
+        op = new TACGenerator.Op[n];
+        arg1 = new int[n];
+        arg2 = new int[n];
+        result = new int[n];
+        for (int i = 0; i < n; i++) {
+            op[i] = g.op(i);
+            arg1[i] = g.arg1(i);
+            arg2[i] = g.arg2(i);
+            result[i] = g.result(i);
+        }
+        boolean[] isDouble = TACInterpreter.inferTypes(g);
+        dead = TACOptimizer.removeDeadTemps(g, op, arg1, arg2, result, n);
+        if (dead > 0) compact();
+
+        int operands = g.operandCount();
+        int[] first = new int[operands], last = new int[operands], blockOf = new int[operands];
+        boolean[] across = new boolean[operands];
+        Arrays.fill(first, -1);
+        int block = 0;
+        for (int i = 0; i < n; i++) {
+            if (op[i] == TACGenerator.Op.LABEL && i > 0) block++;
+            read(arg1[i], i, block, first, last, blockOf, across);
+            read(arg2[i], i, block, first, last, blockOf, across);
+            int r = result[i];
+            if (writes(op[i]) && g.kind(r) == TACGenerator.TEMP) {
+                if (first[r] < 0) {
+                    first[r] = i;
+                    blockOf[r] = block;
+                } else if (blockOf[r] != block) {
+                    across[r] = true;
+                }
+                last[r] = i;
+            }
+            if (op[i] == TACGenerator.Op.GOTO || op[i].isIfFalse()) block++;
+        }
+
+        // 寄存器 k 使用第 k 个临时变量的名字
+        int[] names = new int[operands];
+        int temps = 0;
+        for (int o = 0; o < operands; o++) {
+            if (g.kind(o) == TACGenerator.TEMP) names[temps++] = o;
+        }
+        int[] reg = new int[operands];
+        Arrays.fill(reg, NONE);
+        int[][] free = {new int[8], new int[8]};    // 空闲的整数/浮点寄存器
+        int[] freeCount = new int[2];
+        int registers = 0;
+
+        for (int i = 0; i < n; i++) {
+            int a = arg1[i], b = arg2[i], r = result[i];
+            if (isTemp(a)) {
+                if (reg[a] == NONE) reg[a] = registers++;   // 先读后写的临时变量
+                arg1[i] = names[reg[a]];
+            }
+            if (isTemp(b)) {
+                if (reg[b] == NONE) reg[b] = registers++;
+                arg2[i] = names[reg[b]];
+            }
+            release(a, i, last, across, isDouble, reg, free, freeCount);
+            if (b != a) release(b, i, last, across, isDouble, reg, free, freeCount);
+            if (writes(op[i]) && g.kind(r) == TACGenerator.TEMP) {
+                if (reg[r] == NONE) {
+                    int c = isDouble[r] ? 1 : 0;
+                    reg[r] = !across[r] && freeCount[c] > 0 ? free[c][--freeCount[c]] : registers++;
+                }
+                result[i] = names[reg[r]];
+                if (r != a && r != b) release(r, i, last, across, isDouble, reg, free, freeCount);
+            }
+        }
+        for (int o = 0; o < operands; o++) {
+            if (reg[o] != NONE) g.setDouble(names[reg[o]], isDouble[o]);
+        }
+        for (int o = 0; o < operands; o++) {
+            if (reg[o] != NONE) before++;
+            if (across[o]) global++;
+        }
+        after = registers;
+        g.replaceProgram(op, arg1, arg2, result, n);
+        return this;
+    }
+
+    private boolean isTemp(int o) {
+        return o != NONE && g.kind(o) == TACGenerator.TEMP;
+    }
+
+    private static boolean writes(TACGenerator.Op o) {
+        return o == TACGenerator.Op.ASSIGN || o.isBinary();
+    }
+
+    private void read(int o, int i, int block, int[] first, int[] last, int[] blockOf, boolean[] across) {
+        if (!isTemp(o)) return;
+        if (first[o] < 0 || blockOf[o] != block) across[o] = true;
+        last[o] = i;
+    }
+
+    // 区间在第 i 条指令结束时把寄存器放回
+    private void release(int o, int i, int[] last, boolean[] across, boolean[] isDouble,
+                         int[] reg, int[][] free, int[] freeCount) {
+        if (!isTemp(o) || across[o] || last[o] != i) return;
+        int c = isDouble[o] ? 1 : 0;
+        if (freeCount[c] == free[c].length) free[c] = Arrays.copyOf(free[c], freeCount[c] * 2);
+        free[c][freeCount[c]++] = reg[o];
+    }
+
+    // 去掉被删除(op 为 null)的指令
+    private void compact() {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (op[i] == null) continue;
+            op[k] = op[i];
+            arg1[k] = arg1[i];
+            arg2[k] = arg2[i];
+            result[k] = result[i];
+            k++;
+        }
+        n = k;
+    }
+
+    // 分配前出现的临时变量数
+    public int before() { return before; }
+
+    // 分配后用到的寄存器数
+    public int after() { return after; }
+
+    // 删除的赋值
+    public int dead() { return dead; }
+
+    // 整个程序都活跃的临时变量
+    public int global() { return global; }
+
+    @Override
+    public String toString() {
+        return "temps " + before + " -> " + after + " (dead " + dead + ", across blocks " + global + ")";
+    }
+}
@@ -0,0 +1,74 @@
+package com.xiaozhang;
+
+import java.util.Arrays;
+
+// 按列存放的单词序列：类型、终结符编号、起始偏移、长度、符号编号各一个 int 数组
+// 单词文本通过符号表取得，行列号通过 LineIndex 换算，每个单词不分配对象
+public class TokenBuffer {
+
+    private static final Lexer.TokenType[] TYPES = Lexer.TokenType.values();
+
+    int[] type = new int[256];
+    int[] term = new int[256];
+    int[] start = new int[256];
+    int[] length = new int[256];
+    int[] sym = new int[256];          // 符号编号，EOF/ERROR 为 -1
+    int size;
+
+    final SymbolTable symbols;
+    final LineIndex lines;
+
+    TokenBuffer(SymbolTable symbols, LineIndex lines) {
+        this.symbols = symbols;
+        this.lines = lines;
+    }
+
+    void add(int ty, int te, int st, int len, int sy) {
+        if (size == type.length) {
+            int n = size * 2;
+            type = Arrays.copyOf(type, n);
+            term = Arrays.copyOf(term, n);
+            start = Arrays.copyOf(start, n);
+            length = Arrays.copyOf(length, n);
+            sym = Arrays.copyOf(sym, n);
+        }
+        type[size] = ty;
+        term[size] = te;
+        start[size] = st;
+        length[size] = len;
+        sym[size] = sy;
+        size++;
+    }
+
+    public int size() { return size; }
+
+    public Lexer.TokenType type(int i) { return TYPES[type[i]]; }
+
+    public int term(int i) { return term[i]; }
+
+    public String lexeme(int i) { return Lexer.lexemeOf(TYPES[type[i]], sym[i], symbols); }
+
+    public int line(int i) { return lines.line(start[i]); }
+
+    public int col(int i) { return lines.col(start[i]); }
+
+    // 从头依次读取的单词流
+    public TokenStream stream() {
+        return new TokenStream() {
+            int i = -1;
+
+            public int advance() {
+                if (i < size - 1) i++;
+                return term[i];
+            }
+
+            public Lexer.TokenType type() { return TokenBuffer.this.type(i); }
+
+            public String lexeme() { return TokenBuffer.this.lexeme(i); }
+
+            public int line() { return TokenBuffer.this.line(i); }
+
+            public int col() { return TokenBuffer.this.col(i); }
+        };
+    }
+}
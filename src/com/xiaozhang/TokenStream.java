@@ -0,0 +1,15 @@
+package com.xiaozhang;
+
+// 按需逐个提供单词，最后一个单词的类型为 EOF
+// advance() 前进到下一个单词并返回它的终结符编号(未标注时为 -1)，其余方法读取当前单词
+public interface TokenStream {
+    int advance();
+
+    Lexer.TokenType type();
+
+    String lexeme();
+
+    int line();
+
+    int col();
+}
@@ -0,0 +1,69 @@
+package com.xiaozhang;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// 词法分析的向量化快速路径(jdk.incubator.vector): 一次比较 LANES 个 char(AVX2 上 16 个，AVX-512 上 32 个，即 32~64 字节)
+// 只用来跳过一段同类的 ASCII 字符: 空白、标识符的字母数字、数字串；遇到其他字符(包括非 ASCII)就停下，由 Lexer 的 DFA 接着处理
+// 每个方法返回 p，保证 buf[from..p) 都属于这一类；剩下不足 LANES 个字符时不再比较，p 可能停在这一段的中间
+// JDK 17 中 VectorMask.toLong 没有内联成指令(会分配对象)，只用 allTrue/anyTrue/firstTrue
+// 只在 Lexer.useVectorScan 打开且运行时加了 --add-modules jdk.incubator.vector 时才会加载这个类
+final class VectorScan {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    static final int LANES = SPECIES.length();
+
+    private VectorScan() {}
+
+    // 空白，与 DFA 的 CC_SPACE 相同: ' ' \t \n \u000B \f \r \u001C..\u001F
+    // 跳过的换行成批记入 lines(base 是 buf[0] 在输入中的偏移)
+    static int skipSpace(char[] buf, int from, int limit, LineIndex lines, int base) {
+        int i = from;
+        for (; i + LANES <= limit; i += LANES) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, buf, i);
+            VectorMask<Short> space = v.eq((short) ' ')
+                    .or(range(v, '\t', '\r'))
+                    .or(range(v, '\u001C', '\u001F'));
+            int stop = space.allTrue() ? LANES : space.not().firstTrue();
+            VectorMask<Short> newline = v.eq((short) '\n');
+            if (newline.anyTrue()) {
+                // 一般一段空白中只有一两个换行，从第一个开始逐个找
+                for (int k = newline.firstTrue(); k < stop; k++) {
+                    if (buf[i + k] == '\n') lines.addLine(base + i + k + 1);
+                }
+            }
+            if (stop < LANES) return i + stop;
+        }
+        return i;
+    }
+
+    // 标识符中的字母、数字和 _
+    static int skipIdent(char[] buf, int from, int limit) {
+        int i = from;
+        for (; i + LANES <= limit; i += LANES) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, buf, i);
+            // 大写字母或上 0x20 变成小写
+            VectorMask<Short> word = range(v.or((short) 0x20), 'a', 'z')
+                    .or(range(v, '0', '9'))
+                    .or(v.eq((short) '_'));
+            if (!word.allTrue()) return i + word.not().firstTrue();
+        }
+        return i;
+    }
+
+    static int skipDigits(char[] buf, int from, int limit) {
+        int i = from;
+        for (; i + LANES <= limit; i += LANES) {
+            VectorMask<Short> digit = range(ShortVector.fromCharArray(SPECIES, buf, i), '0', '9');
+            if (!digit.allTrue()) return i + digit.not().firstTrue();
+        }
+        return i;
+    }
+
+    // lo <= c <= hi；区间都在 0x8000 以下，按有符号比较时大于 0x7FFF 的字符是负数，不会落在区间内
+    private static VectorMask<Short> range(ShortVector v, char lo, char hi) {
+        return v.compare(VectorOperators.GE, (short) lo).and(v.compare(VectorOperators.LE, (short) hi));
+    }
+}
@@ -0,0 +1,88 @@
+package com.xiaozhang;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// 出错之后恢复并继续分析: 按出现顺序报告全部错误，不生成代码
+class ErrorRecoveryTest {
+
+    private static void assertErrors(String src, String... expected) {
+        LR1Parser.ParseResult r = OptimizerDifferentialTest.PARSER.compile(src);
+        assertFalse(r.success, src);
+        assertEquals(List.of(expected), r.errors, src);
+        assertEquals(String.join("\n", expected), r.message);
+        assertNull(r.code, src);
+        assertNull(r.tac, src);
+    }
+
+    @Test
+    void missingTokenIsInserted() {
+        assertErrors("a = 1 b = 2;", "Syntax error at 1:7 near 'b', missing ';'");
+        assertErrors("a = (1 + 2;", "Syntax error at 1:11 near ';', missing ')'");
+        assertErrors("if(a < 1){ b = 1; else { b = 2; }", "Syntax error at 1:19 near 'else', missing '}'");
+        assertErrors("for(i = 0; i < 3; i = i + 1){ a = 1; ", "Syntax error at 1:38 near '$', missing '}'");
+    }
+
+    @Test
+    void illegalCharacterIsSkipped() {
+        assertErrors("a = @1; b = 2;", "Lexical error at 1:5: illegal character");
+        assertErrors("x = 1; @ # y = 2;",
+                "Lexical error at 1:8: illegal character",
+                "Lexical error at 1:10: illegal character");
+    }
+
+    @Test
+    void extraTokenIsSkipped() {
+        // 去掉多出来的 '=' 之后继续，后面的错误照常报告
+        assertErrors("a = = 1; b = 2; c = ;",
+                "Syntax error at 1:5 near '='",
+                "Syntax error at 1:21 near ';'");
+    }
+
+    @Test
+    void panicModeSkipsToSemicolonOrBrace() {
+        assertErrors("a = 1 + * + 2; b = 3; c = ;",
+                "Syntax error at 1:9 near '*'",
+                "Syntax error at 1:27 near ';'");
+        // 跳到 '}'，从栈中退出到 for 的循环体，循环之后的部分照常分析
+        assertErrors("for(i = 0; i < 3; i = i + 1){ a = (1 + * 2 } b = 2; c = ;",
+                "Syntax error at 1:40 near '*'",
+                "Syntax error at 1:57 near ';'");
+        // 嵌套在 for 中的 if: 退出到 if 的分支
+        assertErrors("for(i = 0; i < 3; i = i + 1){ if(a < 1){ a = (1 + * } else { b = 1; } } b = 2 c = 3;",
+                "Syntax error at 1:51 near '*'",
+                "Syntax error at 1:79 near 'c', missing ';'");
+    }
+
+    @Test
+    void errorsRightAfterRecoveryAreQuiet() {
+        // 恢复之后只移进了 b = 两个单词，')' 处的错误不报告
+        assertErrors("a = 1 + ; b = ) ; c = 1;", "Syntax error at 1:9 near ';'");
+        assertErrors("a = 1 + ; b ) ; c = 1;", "Syntax error at 1:9 near ';'");
+        // 移进 b = 1 三个单词之后重新报告
+        assertErrors("a = 1 + ; b = 1 ) ; c = 1;",
+                "Syntax error at 1:9 near ';'",
+                "Syntax error at 1:17 near ')'");
+        // 补上的 ';' 也算一个移进的单词
+        assertErrors("a = 1 b c = 3;", "Syntax error at 1:7 near 'b', missing ';'");
+        assertErrors("a = 1 b = 2 c = 3;",
+                "Syntax error at 1:7 near 'b', missing ';'",
+                "Syntax error at 1:13 near 'c', missing ';'");
+    }
+
+    @Test
+    void manyErrorsInOneInput() {
+        assertErrors("a = 1 b = 2 @ c = (3 + 4; if(a < b){ x = * ; } else { x = 1; } y = 2",
+                "Syntax error at 1:7 near 'b', missing ';'",
+                "Lexical error at 1:13: illegal character",
+                "Syntax error at 1:15 near 'c', missing ';'",
+                "Syntax error at 1:25 near ';', missing ')'",
+                "Syntax error at 1:42 near '*'",
+                "Syntax error at 1:69 near '$', missing ';'");
+    }
+}
@@ -0,0 +1,43 @@
+package com.xiaozhang;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// 文法和语义动作写了两份: Grammar/LR1Parser.translate 和 grammar/blyl.bnf，检查两边一致
+class GeneratedParserTest {
+
+    @Test
+    void fingerprintMatchesGrammar() throws IOException {
+        long expected = new Grammar().fingerprint();
+        assertEquals(expected, GeneratedParser.FINGERPRINT);
+        assertEquals(expected, GrammarFile.read(Paths.get("grammar/blyl.bnf")).grammar.fingerprint());
+    }
+
+    @Test
+    void sameCodeAsLR1Parser() {
+        List<String> corpus = new ArrayList<>(List.of(
+                "for(i = 1;i <= 10;i = i + 1){ if(a<1){a = 2;if(b > 1){b = 23;} else{b = 30;}} else {a = 0;} }",
+                "for(i = 1;i <= 10; i = i + 1){ for(j = 0 ;j < i;j = j + 1){a = j + 1;}}",
+                "x = (a + b) * (c / 2.5); if(x != 3){ y = x; } else { y = 0; }",
+                "for(@i = 1;i <= 10; i = i + 1){ }",
+                "for(i = 1;i <= 10; i = i + 1){ if(b > 1){b = 23 else{b = 30;}}",
+                "a = ;",
+                ""));
+        Random r = new Random(23);
+        for (int k = 0; k < 500; k++) corpus.add(OptimizerDifferentialTest.randomProgram(r));
+
+        for (String src : corpus) {
+            LR1Parser.ParseResult expected = OptimizerDifferentialTest.PARSER.compile(src);
+            LR1Parser.ParseResult actual = GeneratedParser.compile(src);
+            assertEquals(expected.success, actual.success, src);
+            if (expected.success) assertEquals(expected.code, actual.code, src);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.xiaozhang;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 每次编辑之后的结果与重新分析整个文本相同: 是否成功、第一个错误和三地址码(临时变量和标号按出现顺序重新编号)
+class IncrementalParserTest {
+
+    private static final LR1Parser PARSER = OptimizerDifferentialTest.PARSER;
+
+    private static final Pattern NAMES = Pattern.compile("\\b([tL])(\\d+)\\b");
+
+    // 增量分析生成的临时变量和标号编号与整体分析不同，只比较出现的先后
+    static List<String> normalize(List<String> code) {
+        Map<String, String> names = new HashMap<>();
+        int[] next = new int[2];
+        return code.stream().map(line -> {
+            Matcher m = NAMES.matcher(line);
+            StringBuilder sb = new StringBuilder();
+            while (m.find()) {
+                int kind = m.group(1).equals("t") ? 0 : 1;
+                String to = names.computeIfAbsent(m.group(), k -> m.group(1) + "#" + ++next[kind]);
+                m.appendReplacement(sb, Matcher.quoteReplacement(to));
+            }
+            m.appendTail(sb);
+            return sb.toString();
+        }).toList();
+    }
+
+    private static LR1Parser.ParseResult edit(IncrementalParser ip, int offset, int removed, String inserted) {
+        LR1Parser.ParseResult r = ip.edit(offset, removed, inserted);
+        assertSameAsFull(ip, r);
+        return r;
+    }
+
+    private static void assertSameAsFull(IncrementalParser ip, LR1Parser.ParseResult r) {
+        String src = ip.text();
+        LR1Parser.ParseResult full = PARSER.compile(src);
+        assertEquals(full.success, r.success, () -> src + "\n" + full.message + "\n" + r.message);
+        if (full.success) {
+            assertEquals(normalize(full.code), normalize(r.code), src);
+        } else {
+            // 增量分析在第一个错误处停下，不做错误恢复，也不报告恢复时补上的单词
+            assertNull(r.code);
+            assertEquals(1, r.errors.size(), src);
+            String first = full.errors.get(0), got = r.errors.get(0);
+            assertTrue(first.equals(got) || first.startsWith(got + ", missing '"), () -> src + "\n" + first + "\n" + got);
+            assertEquals(got, r.message);
+        }
+    }
+
+    private static IncrementalParser start(String src) {
+        IncrementalParser ip = new IncrementalParser(PARSER);
+        assertSameAsFull(ip, ip.parse(src));
+        return ip;
+    }
+
+    @Test
+    void editsAtBothEnds() {
+        IncrementalParser ip = start("a = 1; b = a + 2;");
+        edit(ip, 0, 0, "c = 3; ");
+        edit(ip, ip.text().length(), 0, " d = c * b;");
+        edit(ip, 0, 7, "");
+        // 末尾少了分号，再补上
+        edit(ip, ip.text().length() - 1, 1, "");
+        assertTrue(edit(ip, ip.text().length(), 0, ";").success);
+        // 开头的标识符改成数字，再改回来
+        assertFalse(edit(ip, 0, 1, "1").success);
+        assertTrue(edit(ip, 0, 1, "aa").success);
+        // 清空后重新输入
+        assertFalse(edit(ip, 0, ip.text().length(), "").success);
+        assertTrue(edit(ip, 0, 0, "x = 2;").success);
+        assertEquals("x = 2;", ip.text());
+    }
+
+    @Test
+    void breakAndRepair() {
+        String src = "a = 1; for(i = 0; i < 3; i = i + 1){ a = a * 2; if(a > 4){ b = a; } else { b = 0; } } c = a + b;";
+        IncrementalParser ip = start(src);
+        String[] pieces = {"}", ";", ")", "else", "(", "a * 2", "= 0", "for"};
+        for (String p : pieces) {
+            for (int at = src.indexOf(p); at >= 0; at = src.indexOf(p, at + 1)) {
+                assertFalse(edit(ip, at, p.length(), "").success, () -> "without " + p + " at " + ip.text());
+                assertTrue(edit(ip, at, 0, p).success);
+                assertEquals(src, ip.text());
+                // 插入非法字符再删掉
+                assertFalse(edit(ip, at, 0, "@").success);
+                assertTrue(edit(ip, at, 1, "").success);
+            }
+        }
+    }
+
+    @Test
+    void editsInsideBodiesReuseSubtrees() {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < 20; k++) sb.append("x = x + ").append(k).append("; ");
+        String prefix = sb.toString();
+        String src = prefix + "for(i = 0; i < 5; i = i + 1){ a = a + i; if(a > 3){ b = a * 2; } else { b = a / 2; } } " + prefix;
+        IncrementalParser ip = start(src);
+
+        int body = src.indexOf("a = a + i");
+        assertTrue(edit(ip, body + 8, 1, "j").success);
+        assertTrue(ip.reusedSubtrees() > 0);
+        assertTrue(ip.relexedTokens() < 5);
+
+        int then = ip.text().indexOf("b = a * 2;");
+        assertTrue(edit(ip, then, 0, "c = b; ").success);
+        assertTrue(ip.reusedSubtrees() > 0);
+
+        int els = ip.text().indexOf("b = a / 2;");
+        assertTrue(edit(ip, els + 4, 5, "(a + 1) * 3").success);
+        assertTrue(ip.reusedSubtrees() > 0);
+
+        // 条件和循环头
+        assertTrue(edit(ip, ip.text().indexOf("a > 3"), 5, "a <= b").success);
+        assertTrue(edit(ip, ip.text().indexOf("i < 5"), 5, "i < x").success);
+        assertTrue(ip.reusedSubtrees() > 0);
+        assertTrue(ip.shiftedTokens() < ip.tokenCount() / 2);
+    }
+
+    @Test
+    void randomEdits() {
+        Random r = new Random(13);
+        String[] snippets = {";", "}", "{", "(", ")", " ", "a", "1", "2.5", " + ", " * ", " = ", "x = 1; ", "b = a / 2; ",
+                "if(a < b){ c = 1; } else { c = 2; } ", "for(i = 0; i < 2; i = i + 1){ a = a + i; } ", "else", "@", "\n"};
+        int failed = 0, reused = 0;
+        for (int p = 0; p < 200; p++) {
+            String original = OptimizerDifferentialTest.randomProgram(r);
+            IncrementalParser ip = start(original);
+            for (int e = 0; e < 20; e++) {
+                int len = ip.text().length();
+                int offset = r.nextInt(len + 1);
+                int removed = r.nextInt(3) == 0 ? 0 : r.nextInt(Math.min(len - offset, 12) + 1);
+                String inserted = r.nextInt(3) == 0 ? "" : snippets[r.nextInt(snippets.length)];
+                if (!edit(ip, offset, removed, inserted).success) failed++;
+                if (ip.reusedSubtrees() > 0) reused++;
+                // 有时整体换回原程序
+                if (r.nextInt(8) == 0) assertTrue(edit(ip, 0, ip.text().length(), original).success);
+            }
+        }
+        // 两种情况都要覆盖到
+        assertTrue(failed > 500, "failed " + failed);
+        assertTrue(reused > 200, "reused " + reused);
+    }
+
+    @Test
+    void tooMuchPendingCodeReparsesEverything() {
+        IncrementalParser ip = start("a = 1; b = a + 2; c = b * a;");
+        // 每次编辑只重新识别一个单词，不再使用的代码片段积累到上限时才整体重新分析
+        int k = 0;
+        do {
+            assertTrue(edit(ip, 4, 1, Integer.toString(++k % 10)).success);
+        } while (ip.relexedTokens() < ip.tokenCount() && k < 20_000);
+        assertTrue(k > 1000 && k < 20_000, "reparsed after " + k);
+        // 之后又是增量分析
+        assertTrue(edit(ip, 4, 1, "7").success);
+        assertTrue(ip.relexedTokens() < ip.tokenCount());
+        assertTrue(edit(ip, 0, 1, "x").success);
+        assertTrue(ip.reusedSubtrees() > 0);
+    }
+}
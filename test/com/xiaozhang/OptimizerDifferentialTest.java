@@ -0,0 +1,169 @@
+package com.xiaozhang;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 优化前后解释执行的结果相同: 全部变量的值，或者都除以了 0
+// 整数和浮点数混在一起的程序最容易出错，随机程序中一半的常量是浮点数
+class OptimizerDifferentialTest {
+
+    static final LR1Parser PARSER = new LR1Parser(new Grammar());
+
+    // 优化前在这么多次跳转内结束的程序，优化后也要在这么多次跳转内结束
+    static final long BUDGET = 100_000;
+
+    // 优化的几种组合，Main 中 -Dblyl.optimize 用的是最后一种
+    static final String[] PIPELINES = {"local", "cfg", "local+alloc", "cfg+local+alloc"};
+
+    static void optimize(TACGenerator g, String pipeline) {
+        if (pipeline.startsWith("cfg")) new ControlFlowGraph(g).optimize();
+        if (pipeline.contains("local")) new TACOptimizer().optimize(g);
+        if (pipeline.endsWith("alloc")) new TempAllocator().allocate(g);
+    }
+
+    static TACGenerator compile(String src) {
+        LR1Parser.ParseResult r = PARSER.compile(src);
+        assertNotNull(r.tac, () -> src + "\n" + r.message);
+        return r.tac;
+    }
+
+    // 变量的值；除以 0 时是 "ArithmeticException"，跳转次数用完时是 null
+    static String run(TACGenerator g) {
+        TACInterpreter in = new TACInterpreter(g);
+        TACInterpreter.Frame f = in.newFrame();
+        try {
+            return in.run(f, BUDGET) ? in.variables(f).toString() : null;
+        } catch (ArithmeticException e) {
+            return "ArithmeticException";
+        }
+    }
+
+    // 返回优化前的结果
+    static String assertSameResult(String src) {
+        String expected = run(compile(src));
+        if (expected == null) return null;
+        for (String p : PIPELINES) {
+            TACGenerator g = compile(src);
+            optimize(g, p);
+            assertEquals(expected, run(g), () -> p + ":\n" + src + "\n" + String.join("\n", g.getCode()));
+        }
+        return expected;
+    }
+
+    @Test
+    void copyIntoDoubleVariable() {
+        // i 是 double，i = a 把 a 转换成 double，b = 4 / i 是浮点除法
+        assertEquals("{a=0, b=Infinity, i=0.5}", assertSameResult("i = a; b = 4 / i; i = 0.5;"));
+    }
+
+    @Test
+    void integerConstantInDoubleVariable() {
+        assertEquals("{x=3.0, y=1.5}", assertSameResult("x = 1.5; x = 3; y = x / 2;"));
+    }
+
+    @Test
+    void variableTypeIsFixedForWholeProgram() {
+        // 之后的 x = 0.5 让 x 从头就是 double，y = x / 2 是浮点除法
+        assertEquals("{x=0.5, y=3.5}", assertSameResult("x = 7; y = x / 2; x = 0.5;"));
+        // 执行不到的赋值也算
+        assertEquals("{x=7.0, y=3.5}", assertSameResult("x = 7; if(1 > 2){ x = 0.5; } else { y = x / 2; }"));
+        assertEquals("{i=3, x=7.0, y=3.5}", assertSameResult("x = 7; for(i = 0; i < 3; i = i + 1){ y = x / 2; } if(i < 0){ x = 0.5; } else { i = i; }"));
+    }
+
+    @Test
+    void integerArithmeticIntoDoubleVariable() {
+        // 整数运算的结果再转换成 double
+        assertEquals("{x=0.5, y=3.0}", assertSameResult("y = 7 / 2; y = 0.5; x = y; y = 7 / 2;"));
+        assertEquals("{a=7, b=2, c=3, d=3.0}", assertSameResult("a = 7; b = 2; c = a / b; d = a / b; d = 0.5; d = a / b;"));
+    }
+
+    @Test
+    void integerDivisionByZero() {
+        assertEquals("ArithmeticException", assertSameResult("a = 0; b = 1 / a;"));
+        assertEquals("{a=0.0, b=Infinity}", assertSameResult("a = 0; b = 1 / a; a = 0.0;"));
+    }
+
+    @Test
+    void loopConditionWithNaN() {
+        // j 变成 NaN 后 i < j 为假，循环结束；倒置成 ifFalse i >= j 就不会结束
+        assertEquals("{i=1, j=NaN}", assertSameResult("j = 5; for(i = 0; i < j; i = i + 1){ j = 0.0 / 0; }"));
+        assertEquals("{i=1, j=NaN}", assertSameResult("j = 5; for(i = 0; i <= j; i = i + 1){ j = 0.0 / 0; }"));
+        assertEquals("{i=1, j=NaN}", assertSameResult("j = 5.0; for(i = 0; j > i; i = i + 1){ j = 0.0 / 0.0; }"));
+    }
+
+    @Test
+    void floatLoops() {
+        assertEquals("{i=3.5, x=4.0}", assertSameResult("x = 0; for(i = 0.5; i < 3; i = i + 1){ x = x + 1.0; } x = x + 1;"));
+        assertEquals("{i=0, n=0.0}", assertSameResult("n = 0.0; for(i = 0; i > n; i = i + 1){ n = 1; }"));
+    }
+
+    @Test
+    void randomPrograms() {
+        Random r = new Random(17);
+        int compared = 0;
+        for (int k = 0; k < 1500; k++) {
+            if (assertSameResult(randomProgram(r)) != null) compared++;
+        }
+        // 大部分程序都能在预算内执行完
+        assertTrue(compared > 1000, "compared " + compared);
+    }
+
+    private static final String[] VARS = {"a", "b", "c", "i", "j", "x"};
+
+    // 随机程序: 赋值、if/else 和循环次数不多的 for，常量中一半是浮点数(包括 0.0，用来得到 NaN 和无穷大)
+    static String randomProgram(Random r) {
+        StringBuilder sb = new StringBuilder();
+        int n = 2 + r.nextInt(6);
+        for (int i = 0; i < n; i++) statement(sb, r, 2);
+        return sb.toString();
+    }
+
+    private static void statement(StringBuilder sb, Random r, int depth) {
+        int k = r.nextInt(10);
+        if (depth == 0 || k < 6) {
+            sb.append(VARS[r.nextInt(VARS.length)]).append(" = ").append(expr(r, 2)).append("; ");
+        } else if (k < 8) {
+            sb.append("if(").append(expr(r, 1)).append(' ').append(RELS[r.nextInt(RELS.length)]).append(' ')
+                    .append(expr(r, 1)).append("){ ");
+            body(sb, r, depth - 1);
+            sb.append("} else { ");
+            body(sb, r, depth - 1);
+            sb.append("} ");
+        } else {
+            String v = VARS[r.nextInt(VARS.length)];
+            String bound = r.nextBoolean() ? Integer.toString(r.nextInt(5)) : VARS[r.nextInt(VARS.length)];
+            sb.append("for(").append(v).append(" = 0; ").append(v).append(' ').append(RELS[r.nextInt(4)]).append(' ')
+                    .append(bound).append("; ").append(v).append(" = ").append(v).append(" + 1){ ");
+            body(sb, r, depth - 1);
+            sb.append("} ");
+        }
+    }
+
+    private static final String[] RELS = {"<", "<=", ">", ">=", "!=", "=="};
+
+    private static void body(StringBuilder sb, Random r, int depth) {
+        int n = 1 + r.nextInt(3);
+        for (int i = 0; i < n; i++) statement(sb, r, depth);
+    }
+
+    private static String expr(Random r, int depth) {
+        String f = factor(r);
+        if (depth == 0 || r.nextInt(3) == 0) return f;
+        String[] ops = {"+", "*", "/"};
+        String e = f + " " + ops[r.nextInt(ops.length)] + " " + expr(r, depth - 1);
+        return r.nextInt(4) == 0 ? "(" + e + ")" : e;
+    }
+
+    private static String factor(Random r) {
+        switch (r.nextInt(4)) {
+            case 0: return Integer.toString(r.nextInt(4));
+            case 1: return r.nextInt(4) + "." + r.nextInt(2) * 5;
+            default: return VARS[r.nextInt(VARS.length)];
+        }
+    }
+}
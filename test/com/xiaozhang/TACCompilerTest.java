@@ -0,0 +1,76 @@
+package com.xiaozhang;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// 编译执行与解释执行的结果相同，包括跳转次数用完和除以 0 时帧中的值
+class TACCompilerTest {
+
+    // 是否正常结束(或异常)和帧中全部变量的值
+    private static String interpret(TACInterpreter in, long maxJumps) {
+        TACInterpreter.Frame f = in.newFrame();
+        String status;
+        try {
+            status = Boolean.toString(in.run(f, maxJumps));
+        } catch (ArithmeticException e) {
+            status = "ArithmeticException";
+        }
+        return status + " " + in.variables(f);
+    }
+
+    private static String compiled(TACCompiler c, long maxJumps) {
+        TACInterpreter.Frame f = c.newFrame();
+        String status;
+        try {
+            status = Boolean.toString(c.run(f, maxJumps));
+        } catch (ArithmeticException e) {
+            status = "ArithmeticException";
+        }
+        return status + " " + c.variables(f);
+    }
+
+    private static void assertSameAsInterpreter(String src, long... budgets) {
+        for (String p : new String[]{"none", "cfg+local+alloc"}) {
+            TACGenerator g = OptimizerDifferentialTest.compile(src);
+            OptimizerDifferentialTest.optimize(g, p);
+            TACInterpreter in = new TACInterpreter(g);
+            TACCompiler c = new TACCompiler(in);
+            for (long b : budgets) {
+                assertEquals(interpret(in, b), compiled(c, b), () -> p + ", " + b + " jumps:\n" + src);
+            }
+        }
+    }
+
+    @Test
+    void runawayLoopStops() {
+        String src = "a = 0; for(i = 0; i < 1; j = j + 1){ a = a + 1; }";
+        TACCompiler c = new TACCompiler(OptimizerDifferentialTest.compile(src));
+        TACInterpreter.Frame f = c.newFrame();
+        assertFalse(c.run(f, 1000));
+        assertEquals(1001L, c.get(f, "j"));      // 第 1001 次回跳之前停下
+        assertSameAsInterpreter(src, 0, 1, 2, 1000);
+    }
+
+    @Test
+    void divisionByZeroKeepsPartialResults() {
+        String src = "a = 5; for(i = 0; i < 3; i = i + 1){ x = 0.5 * i; } b = a / 0; c = 1;";
+        TACCompiler c = new TACCompiler(OptimizerDifferentialTest.compile(src));
+        TACInterpreter.Frame f = c.newFrame();
+        assertThrows(ArithmeticException.class, () -> c.run(f, Long.MAX_VALUE));
+        assertEquals("{a=5, b=0, c=0, i=3, x=1.0}", c.variables(f).toString());
+        assertSameAsInterpreter(src, 2, Long.MAX_VALUE);
+    }
+
+    @Test
+    void randomPrograms() {
+        Random r = new Random(20);
+        for (int k = 0; k < 300; k++) {
+            assertSameAsInterpreter(OptimizerDifferentialTest.randomProgram(r), 0, 3, 50, OptimizerDifferentialTest.BUDGET);
+        }
+    }
+}
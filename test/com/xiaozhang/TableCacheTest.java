@@ -0,0 +1,102 @@
+package com.xiaozhang;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 缓存命中时读出的表与重新构造的相同；文法改变、文件被截断或内容损坏时重新构造并写回
+class TableCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private static final ParseTables BUILT = new LR1Parser(new Grammar()).tables();
+
+    static void assertTablesEqual(ParseTables expected, ParseTables actual) {
+        assertArrayEquals(expected.terminals, actual.terminals);
+        assertArrayEquals(expected.nonterminals, actual.nonterminals);
+        assertEquals(expected.stateCount, actual.stateCount);
+        assertArrayEquals(expected.actBase, actual.actBase);
+        assertArrayEquals(expected.actDefault, actual.actDefault);
+        assertArrayEquals(expected.actCheck, actual.actCheck);
+        assertArrayEquals(expected.actValue, actual.actValue);
+        assertArrayEquals(expected.gotoBase, actual.gotoBase);
+        assertArrayEquals(expected.gotoCheck, actual.gotoCheck);
+        assertArrayEquals(expected.gotoValue, actual.gotoValue);
+        assertArrayEquals(expected.prodLhs, actual.prodLhs);
+        assertArrayEquals(expected.prodLen, actual.prodLen);
+    }
+
+    @Test
+    void saveAndLoad() throws IOException {
+        Path file = dir.resolve("t.tables");
+        TableCache.save(file, 42, BUILT);
+        assertTablesEqual(BUILT, TableCache.load(file, 42));
+        assertNull(TableCache.load(file, 43));
+        assertNull(TableCache.load(dir.resolve("missing.tables"), 42));
+    }
+
+    @Test
+    void goodCacheLoadsBuiltTables() {
+        Path file = dir.resolve("t.tables");
+        assertFalse(new LR1Parser(new Grammar()).loadOrBuildTables(file));
+        assertTrue(Files.isRegularFile(file));
+        LR1Parser p = new LR1Parser(new Grammar());
+        assertTrue(p.loadOrBuildTables(file));
+        assertTablesEqual(BUILT, p.tables());
+    }
+
+    @Test
+    void staleFingerprintRebuilds() throws IOException {
+        Path file = dir.resolve("t.tables");
+        TableCache.save(file, 12345, BUILT);
+        assertRebuilt(file);
+    }
+
+    @Test
+    void truncatedFileRebuilds() throws IOException {
+        Path file = dir.resolve("t.tables");
+        new LR1Parser(new Grammar()).loadOrBuildTables(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 7));
+        assertRebuilt(file);
+        // 只剩文件头的一部分
+        Files.write(file, Arrays.copyOf(bytes, 10));
+        assertRebuilt(file);
+    }
+
+    @Test
+    void crcMismatchRebuilds() throws IOException {
+        Path file = dir.resolve("t.tables");
+        new LR1Parser(new Grammar()).loadOrBuildTables(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x10;
+        Files.write(file, bytes);
+        assertRebuilt(file);
+    }
+
+    // 这次未命中并重新构造，写回的文件下次能命中
+    private static void assertRebuilt(Path file) throws IOException {
+        byte[] before = Files.readAllBytes(file);
+        LR1Parser p = new LR1Parser(new Grammar());
+        assertFalse(p.loadOrBuildTables(file));
+        assertTablesEqual(BUILT, p.tables());
+        assertNotEquals(Arrays.hashCode(before), Arrays.hashCode(Files.readAllBytes(file)));
+        LR1Parser q = new LR1Parser(new Grammar());
+        assertTrue(q.loadOrBuildTables(file));
+        assertNotNull(q.tables());
+        assertTablesEqual(BUILT, q.tables());
+    }
+}
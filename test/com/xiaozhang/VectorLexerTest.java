@@ -0,0 +1,120 @@
+package com.xiaozhang;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 向量化快速路径(Lexer.useVectorScan)与逐个字符的 DFA 得到完全相同的单词: 类型、文本、行、列
+// 长度跨过 VECTOR_MIN_RUN(8)和向量宽度的空白/标识符/数字串、换行、非 ASCII 字符和非法字符，
+// 以及每次只给几个字符的 Reader(缓冲区边界落在一段字符中间)
+class VectorLexerTest {
+
+    private static final Map<String, Integer> IDS = OptimizerDifferentialTest.PARSER.terminalIds();
+
+    private static final String OTHER = "abcXYZ_09 \t\n\r\u000B\u001C\u001F.-+*/=<>(){};,[]@#"
+            + "\u00e9\u4e2d\u0663\u00a0\u2028\uff10\u8000\u0141";
+
+    // 全部单词，直到 EOF
+    private static String tokens(Lexer lx) {
+        StringBuilder sb = new StringBuilder();
+        do {
+            lx.advance();
+            sb.append(lx.type()).append(' ').append(lx.lexeme()).append(' ').append(lx.line()).append(':').append(lx.col()).append('\n');
+        } while (lx.type() != Lexer.TokenType.EOF);
+        return sb.toString();
+    }
+
+    // 每次最多读 1..61 个字符
+    private static Reader chunked(String s) {
+        return new Reader() {
+            int p;
+
+            @Override
+            public int read(char[] dst, int off, int len) {
+                if (p >= s.length()) return -1;
+                int n = Math.min(Math.min(len, 1 + (p * 7) % 61), s.length() - p);
+                s.getChars(p, p + n, dst, off);
+                p += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static void assertSameTokens(List<String> inputs) {
+        boolean saved = Lexer.usingVectorScan();
+        try {
+            for (String s : inputs) {
+                Lexer.useVectorScan(false);
+                String scalar = tokens(new Lexer(s, IDS));
+                String scalarStream = tokens(new Lexer(chunked(s), IDS));
+                assertEquals(scalar, scalarStream, s);
+                assertTrue(Lexer.useVectorScan(true), "run with --add-modules jdk.incubator.vector");
+                assertEquals(scalar, tokens(new Lexer(s, IDS)), s);
+                assertEquals(scalar, tokens(new Lexer(chunked(s), IDS)), s);
+            }
+        } finally {
+            Lexer.useVectorScan(saved);
+        }
+    }
+
+    @Test
+    void runsAroundThresholds() {
+        int lanes = VectorScan.LANES;
+        int[] lengths = {1, 7, 8, 9, 15, 16, 17, lanes - 1, lanes, lanes + 1, 2 * lanes - 1, 2 * lanes, 2 * lanes + 1, 3 * lanes + 5};
+        String[] stops = {"", ";", "x", "9", "é", "@", "\n", "\r\n", " "};
+        List<String> inputs = new ArrayList<>();
+        for (int n : lengths) {
+            for (String stop : stops) {
+                inputs.add("a" + " ".repeat(n) + stop + "b");
+                inputs.add(" ".repeat(n) + "\n" + " ".repeat(n) + "\r\n" + stop + "c = 1;");
+                inputs.add("x" + "aZ_9".repeat(n).substring(0, n) + stop + " = 1;");
+                inputs.add("y = " + "1234567890".repeat(n / 10 + 1).substring(0, n) + stop + ";");
+                inputs.add("\t\u000B\f\u001C\u001F".repeat(n).substring(0, n) + stop);
+            }
+        }
+        assertSameTokens(inputs);
+    }
+
+    @Test
+    void newlinesInsideLongSpaceRuns() {
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder sb = new StringBuilder("a");
+            for (int k = 0; k < i; k++) sb.append(k % 3 == 0 ? "\r\n" : k % 3 == 1 ? "\n" : "        ");
+            inputs.add(sb.append("b\n c").toString());
+        }
+        assertSameTokens(inputs);
+    }
+
+    @Test
+    void randomInputs() {
+        Random r = new Random(25);
+        List<String> inputs = new ArrayList<>();
+        for (int it = 0; it < 1500; it++) {
+            StringBuilder sb = new StringBuilder();
+            int len = r.nextInt(400);
+            while (sb.length() < len) {
+                switch (r.nextInt(6)) {
+                    case 0: sb.append(" ".repeat(r.nextInt(80))); break;
+                    case 1: for (int j = r.nextInt(90); j > 0; j--) sb.append("aZ_9x".charAt(r.nextInt(5))); break;
+                    case 2: for (int j = r.nextInt(90); j > 0; j--) sb.append((char) ('0' + r.nextInt(10))); break;
+                    case 3: for (int j = r.nextInt(50); j > 0; j--) sb.append(" \n\t\r\n".charAt(r.nextInt(5))); break;
+                    default: sb.append(OTHER.charAt(r.nextInt(OTHER.length())));
+                }
+            }
+            inputs.add(sb.toString());
+        }
+        assertSameTokens(inputs);
+    }
+}